@@ -0,0 +1,774 @@
+package com.healthinsight;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * AssessmentIndex
+ * - In-process inverted index over saved assessments (symptoms, top conditions, notes)
+ * - Postings are delta + varint compressed: per doc [docDelta, freq, posDelta...]
+ * - New assessments go into a live segment; a full live segment is sealed (searchable at
+ *   once) and handed to a background flusher, which compacts it and writes it to disk as
+ *   an immutable segment file; segment files are simply reloaded on restart
+ * - Queries: terms are ANDed, "quoted phrases", a OR b, -excluded; plus optional date
+ *   range and urgent filters. A query with no terms returns everything that passes the filters.
+ *
+ * Typical use:
+ *   AssessmentIndex idx = AssessmentIndex.open(Path.of("index"));
+ *   idx.attach(db);   // catch up from the database, then follow saveAssessment
+ *   idx.search("dizziness", LocalDateTime.now().minusMonths(1), null, true, 50);
+ *
+ * An index directory follows either one DatabaseManager or one ShardedDatabaseManager
+ * (whose ids are global); rebalancing moves rows to new ids, so rebuild the index after it.
+ */
+public class AssessmentIndex implements DatabaseManager.AssessmentListener {
+
+    private static final int SEGMENT_MAGIC = 0x48494958; // "HIIX"
+    private static final int SEGMENT_VERSION = 1;
+    private static final int FLUSH_DOCS = 10_000;
+    // Positions between fields are spread apart so phrases never match across fields
+    private static final int FIELD_GAP = 1_000;
+    private static final Pattern SCORE_SUFFIX = Pattern.compile("\\(score -?\\d+\\)");
+    private static final Comparator<Hit> NEWEST_FIRST =
+            Comparator.comparing(Hit::createdAt).thenComparingLong(Hit::assessmentId).reversed();
+
+    private final Path dir;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Segment> sealed = new ArrayList<>();
+    // Sealed segments the flusher has not compacted/written yet, oldest first
+    private final Deque<Segment> unwritten = new ArrayDeque<>();
+    // Held while writing segment files; serialises the flusher and flush()
+    private final ReentrantLock diskLock = new ReentrantLock();
+    private ExecutorService flusher;
+    private Segment live = new Segment();
+    private int nextSegmentNo = 1;
+    // Per source database (shard index, or 0 for a single database): every row with a
+    // local id <= caughtUpTo is in a sealed segment. Rows are not delivered in id order,
+    // so the largest sealed id says nothing about smaller ones.
+    private long[] caughtUpTo = new long[1];
+    // Every row with local id <= deliveredTo has reached the index (sealed or live): the
+    // catch-up stream position, then, once the source is followed, the largest id saved at
+    // a moment when no other save on that database was still in flight
+    private long[] deliveredTo = new long[1];
+    private long[] maxSeen = new long[1];
+    private boolean[] following = new boolean[1];
+    private boolean globalIds = false;
+    private List<DatabaseManager> sources = List.of();
+    // Only while a catch-up runs: ids each path has indexed, so a row that both the stream and
+    // the save listener see is indexed once whichever gets there first
+    private Set<Long> addedDuringCatchUp = null;
+    private LongList[] streamedDuringCatchUp = null; // per source, local ids in stream (ascending) order
+
+    private AssessmentIndex(Path dir) {
+        this.dir = dir;
+    }
+
+    /** Memory-only index; nothing is persisted. */
+    public static AssessmentIndex inMemory() {
+        return new AssessmentIndex(null);
+    }
+
+    /** Opens (or creates) an index directory and loads its sealed segments. */
+    public static AssessmentIndex open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        AssessmentIndex idx = new AssessmentIndex(dir);
+        List<Path> files;
+        try (Stream<Path> s = Files.list(dir)) {
+            files = s.filter(p -> p.getFileName().toString().matches("seg-\\d+\\.idx")).sorted().toList();
+        }
+        for (Path f : files) {
+            Segment seg = Segment.read(f);
+            idx.sealed.add(seg);
+            idx.growWatermarks(seg.caughtUpTo.length);
+            for (int i = 0; i < seg.caughtUpTo.length; i++) {
+                idx.caughtUpTo[i] = Math.max(idx.caughtUpTo[i], seg.caughtUpTo[i]);
+            }
+            int no = Integer.parseInt(f.getFileName().toString().replaceAll("\\D", ""));
+            idx.nextSegmentNo = Math.max(idx.nextSegmentNo, no + 1);
+        }
+        idx.deliveredTo = idx.caughtUpTo.clone();
+        return idx;
+    }
+
+    /**
+     * Subscribes to the database's saves and streams in every row above the catch-up
+     * watermark, skipping rows a sealed segment already holds. Rows saved while the
+     * catch-up runs are not indexed twice.
+     *
+     * Each seal moves the watermark up to just below the smallest id still in the live
+     * segment, so rows that were unsealed when the process stopped are streamed again on
+     * the next attach rather than lost, and everything below them is not.
+     */
+    public void attach(DatabaseManager db) throws SQLException {
+        beginCatchUp(List.of(db), false);
+        db.addAssessmentListener(this);
+        try {
+            catchUp(db, 0, false);
+        } finally {
+            endCatchUp();
+        }
+    }
+
+    /** As attach(DatabaseManager), streaming each shard in turn and indexing under global ids. */
+    public void attach(ShardedDatabaseManager db) throws SQLException {
+        List<DatabaseManager> shards = db.getShards();
+        beginCatchUp(shards, true);
+        db.addAssessmentListener(this);
+        try {
+            for (int i = 0; i < shards.size(); i++) catchUp(shards.get(i), i, true);
+        } finally {
+            endCatchUp();
+        }
+    }
+
+    private void beginCatchUp(List<DatabaseManager> sources, boolean globalIds) {
+        lock.writeLock().lock();
+        try {
+            this.sources = List.copyOf(sources);
+            this.globalIds = globalIds;
+            growWatermarks(sources.size());
+            addedDuringCatchUp = new HashSet<>();
+            streamedDuringCatchUp = new LongList[caughtUpTo.length];
+            for (int i = 0; i < streamedDuringCatchUp.length; i++) streamedDuringCatchUp[i] = new LongList();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void endCatchUp() {
+        lock.writeLock().lock();
+        try {
+            addedDuringCatchUp = null;
+            streamedDuringCatchUp = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void catchUp(DatabaseManager db, int source, boolean globalIds) throws SQLException {
+        Set<Long> sealedAbove = new HashSet<>();
+        long from;
+        lock.readLock().lock();
+        try {
+            from = caughtUpTo[source];
+            for (Segment seg : sealed) {
+                for (int d = 0; d < seg.docCount; d++) {
+                    long id = seg.ids[d];
+                    boolean above = globalIds
+                            ? ShardedDatabaseManager.shardOf(id) == source && ShardedDatabaseManager.localId(id) > from
+                            : id > from;
+                    if (above) sealedAbove.add(id);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        db.streamAssessmentsAfter(from, local -> {
+            DatabaseManager.AssessmentRecord r = globalIds ? ShardedDatabaseManager.toGlobal(local, source) : local;
+            lock.writeLock().lock();
+            try {
+                // Rows come in id order, so everything up to here has been delivered
+                deliveredTo[source] = Math.max(deliveredTo[source], local.id());
+                maxSeen[source] = Math.max(maxSeen[source], local.id());
+                if (!sealedAbove.contains(r.id()) && !addedDuringCatchUp.contains(r.id())) addLocked(r);
+                streamedDuringCatchUp[source].add(local.id());
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+        lock.writeLock().lock();
+        try {
+            following[source] = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void growWatermarks(int sources) {
+        if (caughtUpTo.length >= sources) return;
+        caughtUpTo = Arrays.copyOf(caughtUpTo, sources);
+        deliveredTo = Arrays.copyOf(deliveredTo, sources);
+        maxSeen = Arrays.copyOf(maxSeen, sources);
+        following = Arrays.copyOf(following, sources);
+    }
+
+    private int sourceOf(long id) {
+        return globalIds ? ShardedDatabaseManager.shardOf(id) : 0;
+    }
+
+    private long localOf(long id) {
+        return globalIds ? ShardedDatabaseManager.localId(id) : id;
+    }
+
+    @Override
+    public void onAssessmentSaved(DatabaseManager.AssessmentRecord record) {
+        add(record);
+    }
+
+    public void add(DatabaseManager.AssessmentRecord r) {
+        lock.writeLock().lock();
+        try {
+            int source = sourceOf(r.id());
+            if (addedDuringCatchUp != null) {
+                // Committed before the stream reached it, but the save's listener ran only now
+                if (source < streamedDuringCatchUp.length && streamedDuringCatchUp[source].contains(localOf(r.id()))) return;
+                addedDuringCatchUp.add(r.id());
+            }
+            if (source < following.length && following[source]) {
+                maxSeen[source] = Math.max(maxSeen[source], localOf(r.id()));
+                // Ours is the only save in flight, so any smaller id has already been delivered
+                if (source >= sources.size() || sources.get(source).savesInFlight() <= 1) {
+                    deliveredTo[source] = maxSeen[source];
+                }
+            }
+            addLocked(r);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Seals the live segment and waits until every sealed segment has been written to disk
+     * (unless the index is memory-only).
+     */
+    public void flush() throws IOException {
+        lock.writeLock().lock();
+        try {
+            sealLive();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        writeUnwritten();
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            int n = live.docCount;
+            for (Segment s : sealed) n += s.docCount;
+            return n;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs a query. from/to bound created_at (inclusive/exclusive, either may be null);
+     * urgent filters on the urgent flag when non-null. Hits are newest first.
+     * Term queries only visit documents in the matching postings; only the newest
+     * limit hits are kept while segments are searched.
+     */
+    public List<Hit> search(String query, LocalDateTime from, LocalDateTime to, Boolean urgent, int limit) {
+        if (limit < 0) throw new IllegalArgumentException("limit must not be negative");
+        Query q = Query.parse(query);
+        long fromSec = from == null ? Long.MIN_VALUE : epoch(from);
+        long toSec = to == null ? Long.MAX_VALUE : epoch(to);
+
+        TopHits top = new TopHits(limit);
+        if (limit == 0) return top.toList();
+        lock.readLock().lock();
+        try {
+            for (Segment s : sealed) s.search(q, fromSec, toSec, urgent, top);
+            live.search(q, fromSec, toSec, urgent, top);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return top.toList();
+    }
+
+    private void addLocked(DatabaseManager.AssessmentRecord r) {
+        Map<String, IntList> terms = new LinkedHashMap<>();
+        int pos = tokenizeInto(r.symptoms(), 0, terms);
+        pos = tokenizeInto(r.topConditions() == null ? null : SCORE_SUFFIX.matcher(r.topConditions()).replaceAll(" "),
+                pos + FIELD_GAP, terms);
+        tokenizeInto(r.notes(), pos + FIELD_GAP, terms);
+        live.addDoc(r, terms);
+        if (live.docCount >= FLUSH_DOCS) {
+            sealLive();
+            flusher().execute(() -> {
+                try {
+                    writeUnwritten();
+                } catch (IOException e) {
+                    System.err.println("Could not write index segment: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /** Moves the live segment to the sealed list; cheap, since compaction and I/O happen later. */
+    private void sealLive() {
+        if (live.docCount == 0) return;
+        Segment seg = live;
+        // Nothing is unsealed once this segment is: every delivered row is now covered. The
+        // flusher writes segments in order, so once this one is on disk so is every earlier one.
+        long[] next = caughtUpTo.clone();
+        for (int i = 0; i < next.length; i++) next[i] = Math.max(next[i], deliveredTo[i]);
+        seg.caughtUpTo = next;
+        caughtUpTo = next.clone();
+        sealed.add(seg);
+        unwritten.addLast(seg);
+        live = new Segment();
+    }
+
+    /**
+     * Compacts and writes sealed segments, oldest first, outside the index lock; a sealed
+     * segment is never modified again, so searches keep reading it meanwhile. A failed
+     * write leaves the segment queued for the next attempt.
+     */
+    private void writeUnwritten() throws IOException {
+        diskLock.lock();
+        try {
+            while (true) {
+                Segment seg;
+                lock.readLock().lock();
+                try {
+                    seg = unwritten.peekFirst();
+                } finally {
+                    lock.readLock().unlock();
+                }
+                if (seg == null) return;
+
+                Segment compact = seg.compacted();
+                if (dir != null) {
+                    Path file = dir.resolve(String.format("seg-%08d.idx", nextSegmentNo));
+                    Path tmp = dir.resolve(file.getFileName() + ".tmp");
+                    compact.write(tmp);
+                    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    nextSegmentNo++;
+                }
+                lock.writeLock().lock();
+                try {
+                    unwritten.removeFirst();
+                    sealed.set(sealed.indexOf(seg), compact);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        } finally {
+            diskLock.unlock();
+        }
+    }
+
+    private synchronized ExecutorService flusher() {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "assessment-index-flush");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return flusher;
+    }
+
+    private static long epoch(LocalDateTime t) {
+        return t.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /* ---------- Tokenization ---------- */
+
+    /** Lower-cased runs of letters/digits. */
+    static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        StringBuilder cur = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                cur.append(Character.toLowerCase(c));
+            } else if (cur.length() > 0) {
+                out.add(cur.toString());
+                cur.setLength(0);
+            }
+        }
+        if (cur.length() > 0) out.add(cur.toString());
+        return out;
+    }
+
+    /** Records each token's position in terms; returns the position after the last token. */
+    private static int tokenizeInto(String text, int startPos, Map<String, IntList> terms) {
+        int pos = startPos;
+        for (String t : tokenize(text)) {
+            terms.computeIfAbsent(t, k -> new IntList()).add(pos++);
+        }
+        return pos;
+    }
+
+    /* ---------- Query model ---------- */
+
+    /** AND of OR-groups, minus excluded atoms. An atom is a single term or a phrase. */
+    private record Query(List<List<List<String>>> groups, List<List<String>> excluded) {
+
+        static Query parse(String text) {
+            List<List<List<String>>> groups = new ArrayList<>();
+            List<List<String>> excluded = new ArrayList<>();
+            if (text == null) return new Query(groups, excluded);
+
+            boolean pendingOr = false;
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) { i++; continue; }
+                boolean negate = false;
+                if (c == '-') { negate = true; i++; }
+                String raw;
+                if (i < text.length() && text.charAt(i) == '"') {
+                    int close = text.indexOf('"', i + 1);
+                    if (close < 0) close = text.length();
+                    raw = text.substring(i + 1, close);
+                    i = close + 1;
+                } else {
+                    int end = i;
+                    while (end < text.length() && !Character.isWhitespace(text.charAt(end))) end++;
+                    raw = text.substring(i, end);
+                    i = end;
+                    if (!negate && raw.equals("OR")) {
+                        pendingOr = !groups.isEmpty();
+                        continue;
+                    }
+                }
+                List<String> atom = tokenize(raw);
+                if (atom.isEmpty()) continue;
+                if (negate) {
+                    excluded.add(atom);
+                } else if (pendingOr) {
+                    groups.get(groups.size() - 1).add(atom);
+                } else {
+                    groups.add(new ArrayList<>(List.of(atom)));
+                }
+                pendingOr = false;
+            }
+            return new Query(groups, excluded);
+        }
+    }
+
+    public record Hit(long assessmentId, long userId, LocalDateTime createdAt, boolean urgent) {}
+
+    /** Bounded min-heap keeping the newest limit hits; the oldest kept hit is at the head. */
+    private static final class TopHits {
+        final int limit;
+        final PriorityQueue<Hit> heap;
+
+        TopHits(int limit) {
+            this.limit = limit;
+            this.heap = new PriorityQueue<>(Math.max(1, Math.min(limit, 1024)), NEWEST_FIRST.reversed());
+        }
+
+        void offer(long id, long userId, long createdSec, boolean urgent) {
+            if (heap.size() == limit) {
+                Hit oldest = heap.peek();
+                long oldestSec = epoch(oldest.createdAt());
+                if (createdSec < oldestSec || (createdSec == oldestSec && id <= oldest.assessmentId())) return;
+                heap.poll();
+            }
+            heap.add(new Hit(id, userId, LocalDateTime.ofEpochSecond(createdSec, 0, ZoneOffset.UTC), urgent));
+        }
+
+        List<Hit> toList() {
+            List<Hit> out = new ArrayList<>(heap);
+            out.sort(NEWEST_FIRST);
+            return out;
+        }
+    }
+
+    /* ---------- Segments ---------- */
+
+    private static final class Segment {
+        long[] ids = new long[64];
+        long[] userIds = new long[64];
+        long[] created = new long[64];
+        final BitSet urgent = new BitSet();
+        int docCount = 0;
+        long minCreated = Long.MAX_VALUE;
+        long maxCreated = Long.MIN_VALUE;
+        long[] caughtUpTo = new long[0];
+        final Map<String, Postings> postings = new HashMap<>();
+
+        void addDoc(DatabaseManager.AssessmentRecord r, Map<String, IntList> terms) {
+            if (docCount == ids.length) {
+                int n = ids.length * 2;
+                ids = Arrays.copyOf(ids, n);
+                userIds = Arrays.copyOf(userIds, n);
+                created = Arrays.copyOf(created, n);
+            }
+            int doc = docCount++;
+            ids[doc] = r.id();
+            userIds[doc] = r.userId();
+            created[doc] = epoch(r.createdAt());
+            minCreated = Math.min(minCreated, created[doc]);
+            maxCreated = Math.max(maxCreated, created[doc]);
+            if (r.urgent()) urgent.set(doc);
+            for (Map.Entry<String, IntList> e : terms.entrySet()) {
+                postings.computeIfAbsent(e.getKey(), k -> new Postings()).add(doc, e.getValue());
+            }
+        }
+
+        /** A copy with arrays cut to size; used once a sealed segment no longer changes. */
+        Segment compacted() {
+            Segment c = new Segment();
+            c.ids = Arrays.copyOf(ids, docCount);
+            c.userIds = Arrays.copyOf(userIds, docCount);
+            c.created = Arrays.copyOf(created, docCount);
+            c.urgent.or(urgent);
+            c.docCount = docCount;
+            c.minCreated = minCreated;
+            c.maxCreated = maxCreated;
+            c.caughtUpTo = caughtUpTo;
+            for (Map.Entry<String, Postings> e : postings.entrySet()) c.postings.put(e.getKey(), e.getValue().compacted());
+            return c;
+        }
+
+        void search(Query q, long fromSec, long toSec, Boolean wantUrgent, TopHits out) {
+            if (docCount == 0 || maxCreated < fromSec || minCreated >= toSec) return;
+            // Intersect postings first; filters then only look at the surviving candidates
+            BitSet result = null;
+            for (List<List<String>> group : q.groups()) {
+                BitSet any = new BitSet(docCount);
+                for (List<String> atom : group) any.or(match(atom));
+                if (result == null) {
+                    result = any;
+                } else {
+                    result.and(any);
+                }
+                if (result.isEmpty()) return;
+            }
+            if (result == null) {
+                result = new BitSet(docCount); // no terms: every document is a candidate
+                result.set(0, docCount);
+            }
+            if (wantUrgent != null) {
+                if (wantUrgent) {
+                    result.and(urgent);
+                } else {
+                    result.andNot(urgent);
+                }
+            }
+            for (List<String> atom : q.excluded()) {
+                if (result.isEmpty()) return;
+                result.andNot(match(atom));
+            }
+            for (int d = result.nextSetBit(0); d >= 0; d = result.nextSetBit(d + 1)) {
+                if (created[d] < fromSec || created[d] >= toSec) continue;
+                out.offer(ids[d], userIds[d], created[d], urgent.get(d));
+            }
+        }
+
+        private BitSet match(List<String> atom) {
+            BitSet docs = new BitSet(docCount);
+            if (atom.size() == 1) {
+                Postings p = postings.get(atom.get(0));
+                if (p != null) p.decode(false).forEachDoc(docs::set);
+                return docs;
+            }
+            Decoded[] parts = new Decoded[atom.size()];
+            for (int i = 0; i < parts.length; i++) {
+                Postings p = postings.get(atom.get(i));
+                if (p == null) return docs;
+                parts[i] = p.decode(true);
+            }
+            // Walk the first term's docs and check each later term at the next position
+            Decoded first = parts[0];
+            int[] cursor = new int[parts.length];
+            outer:
+            for (int k = 0; k < first.docs.length; k++) {
+                int doc = first.docs[k];
+                for (int i = 1; i < parts.length; i++) {
+                    int[] d = parts[i].docs;
+                    while (cursor[i] < d.length && d[cursor[i]] < doc) cursor[i]++;
+                    if (cursor[i] >= d.length) break outer;
+                    if (d[cursor[i]] != doc) continue outer;
+                }
+                for (int s = first.posStart[k]; s < first.posStart[k + 1]; s++) {
+                    int start = first.positions[s];
+                    boolean all = true;
+                    for (int i = 1; i < parts.length && all; i++) {
+                        all = parts[i].hasPosition(cursor[i], start + i);
+                    }
+                    if (all) {
+                        docs.set(doc);
+                        break;
+                    }
+                }
+            }
+            return docs;
+        }
+
+        void write(Path file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(SEGMENT_MAGIC);
+                out.writeInt(SEGMENT_VERSION);
+                out.writeInt(caughtUpTo.length);
+                for (long w : caughtUpTo) out.writeLong(w);
+                out.writeInt(docCount);
+                for (int d = 0; d < docCount; d++) {
+                    out.writeLong(ids[d]);
+                    out.writeLong(userIds[d]);
+                    out.writeLong(created[d]);
+                    out.writeBoolean(urgent.get(d));
+                }
+                List<String> terms = new ArrayList<>(postings.keySet());
+                Collections.sort(terms);
+                out.writeInt(terms.size());
+                for (String t : terms) {
+                    Postings p = postings.get(t);
+                    out.writeUTF(t);
+                    out.writeInt(p.docFreq);
+                    out.writeInt(p.length);
+                    out.write(p.bytes, 0, p.length);
+                }
+            }
+        }
+
+        static Segment read(Path file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != SEGMENT_MAGIC) throw new IOException("Not an index segment: " + file);
+                int version = in.readInt();
+                if (version != SEGMENT_VERSION) throw new IOException("Unsupported segment version " + version + ": " + file);
+                Segment s = new Segment();
+                s.caughtUpTo = new long[in.readInt()];
+                for (int i = 0; i < s.caughtUpTo.length; i++) s.caughtUpTo[i] = in.readLong();
+                int n = in.readInt();
+                s.ids = new long[n];
+                s.userIds = new long[n];
+                s.created = new long[n];
+                for (int d = 0; d < n; d++) {
+                    s.ids[d] = in.readLong();
+                    s.userIds[d] = in.readLong();
+                    s.created[d] = in.readLong();
+                    if (in.readBoolean()) s.urgent.set(d);
+                    s.minCreated = Math.min(s.minCreated, s.created[d]);
+                    s.maxCreated = Math.max(s.maxCreated, s.created[d]);
+                }
+                s.docCount = n;
+                int termCount = in.readInt();
+                for (int i = 0; i < termCount; i++) {
+                    String term = in.readUTF();
+                    Postings p = new Postings();
+                    p.docFreq = in.readInt();
+                    p.length = in.readInt();
+                    p.bytes = new byte[p.length];
+                    in.readFully(p.bytes);
+                    p.lastDoc = -1; // sealed; never appended to again
+                    s.postings.put(term, p);
+                }
+                return s;
+            }
+        }
+    }
+
+    /** Compressed postings for one term: per doc varint(docDelta), varint(freq), varint(posDelta)*freq. */
+    private static final class Postings {
+        byte[] bytes = new byte[16];
+        int length = 0;
+        int docFreq = 0;
+        int lastDoc = -1;
+
+        void add(int doc, IntList positions) {
+            writeVInt(doc - lastDoc);
+            writeVInt(positions.size);
+            int prev = 0;
+            for (int i = 0; i < positions.size; i++) {
+                writeVInt(positions.data[i] - prev);
+                prev = positions.data[i];
+            }
+            lastDoc = doc;
+            docFreq++;
+        }
+
+        Postings compacted() {
+            Postings c = new Postings();
+            c.bytes = Arrays.copyOf(bytes, length);
+            c.length = length;
+            c.docFreq = docFreq;
+            c.lastDoc = -1; // sealed; never appended to again
+            return c;
+        }
+
+        Decoded decode(boolean withPositions) {
+            int[] docs = new int[docFreq];
+            int[] posStart = withPositions ? new int[docFreq + 1] : null;
+            IntList positions = withPositions ? new IntList() : null;
+            int[] cursor = {0};
+            int doc = -1;
+            for (int k = 0; k < docFreq; k++) {
+                doc += readVInt(cursor);
+                docs[k] = doc;
+                int freq = readVInt(cursor);
+                if (withPositions) posStart[k] = positions.size;
+                int pos = 0;
+                for (int f = 0; f < freq; f++) {
+                    pos += readVInt(cursor);
+                    if (withPositions) positions.add(pos);
+                }
+            }
+            if (withPositions) posStart[docFreq] = positions.size;
+            return new Decoded(docs, posStart, withPositions ? Arrays.copyOf(positions.data, positions.size) : null);
+        }
+
+        private void writeVInt(int v) {
+            if (length + 5 > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+            while ((v & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[length++] = (byte) v;
+        }
+
+        private int readVInt(int[] cursor) {
+            int v = 0, shift = 0;
+            byte b;
+            do {
+                b = bytes[cursor[0]++];
+                v |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return v;
+        }
+    }
+
+    private record Decoded(int[] docs, int[] posStart, int[] positions) {
+
+        void forEachDoc(IntConsumer c) {
+            for (int d : docs) c.accept(d);
+        }
+
+        boolean hasPosition(int docIndex, int pos) {
+            return Arrays.binarySearch(positions, posStart[docIndex], posStart[docIndex + 1], pos) >= 0;
+        }
+    }
+
+    /** Append-only longs, appended in ascending order so contains() can binary search. */
+    private static final class LongList {
+        long[] data = new long[16];
+        int size = 0;
+
+        void add(long v) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = v;
+        }
+
+        boolean contains(long v) {
+            return Arrays.binarySearch(data, 0, size, v) >= 0;
+        }
+    }
+
+    private static final class IntList {
+        int[] data = new int[4];
+        int size = 0;
+
+        void add(int v) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = v;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.healthinsight;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ConnectionPool
+ * - Small fixed-size JDBC pool for one database URL
+ * - Hands out proxies whose close() returns the physical connection to the pool,
+ *   so callers keep using try-with-resources exactly like DriverManager connections
+ * - Connections are opened lazily up to maxSize
+ * - Only connections that sat idle longer than VALIDATE_AFTER_IDLE_MS are checked with a
+ *   server round trip before reuse; recently used ones are handed out as is, and one that
+ *   reported a connection-level error (SQLState class 08) is discarded when returned
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final long BORROW_TIMEOUT_MS = 30_000;
+    private static final int VALIDATION_TIMEOUT_S = 2;
+    // MySQL drops idle sessions after wait_timeout (8h by default); anything this fresh is trusted
+    private static final long VALIDATE_AFTER_IDLE_MS = 30_000;
+
+    private final String url;
+    private final String user;
+    private final String pass;
+    private final int maxSize;
+
+    private final BlockingQueue<Idle> idle;
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger borrowed = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    public ConnectionPool(String url, String user, String pass, int maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+        this.url = url;
+        this.user = user;
+        this.pass = pass;
+        this.maxSize = maxSize;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed.");
+
+        Idle pooled = idle.poll();
+        if (pooled == null && reserveSlot()) {
+            Connection fresh;
+            try {
+                fresh = DriverManager.getConnection(url, user, pass);
+            } catch (SQLException e) {
+                opened.decrementAndGet();
+                throw e;
+            }
+            borrowed.incrementAndGet();
+            return wrap(fresh);
+        }
+        if (pooled == null) {
+            try {
+                pooled = idle.poll(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection.", e);
+            }
+            if (pooled == null) throw new SQLException("Timed out waiting for a pooled connection.");
+        }
+        Connection physical = pooled.connection();
+        boolean stale = System.currentTimeMillis() - pooled.since() > VALIDATE_AFTER_IDLE_MS;
+        if (physical.isClosed() || (stale && !physical.isValid(VALIDATION_TIMEOUT_S))) {
+            discard(physical);
+            return getConnection();
+        }
+        borrowed.incrementAndGet();
+        return wrap(physical);
+    }
+
+    /** Number of connections currently handed out to callers. */
+    public int getActiveCount() {
+        return borrowed.get();
+    }
+
+    /** Number of physical connections opened (idle + active). */
+    public int getOpenCount() {
+        return opened.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Idle c;
+        while ((c = idle.poll()) != null) discard(c.connection());
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int n = opened.get();
+            if (n >= maxSize) return false;
+            if (opened.compareAndSet(n, n + 1)) return true;
+        }
+    }
+
+    private void release(Connection physical, boolean broken) {
+        borrowed.decrementAndGet();
+        try {
+            if (broken || closed || physical.isClosed()) {
+                discard(physical);
+                return;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            discard(physical);
+            return;
+        }
+        if (!idle.offer(new Idle(physical, System.currentTimeMillis()))) discard(physical);
+    }
+
+    private void discard(Connection physical) {
+        opened.decrementAndGet();
+        try {
+            physical.close();
+        } catch (SQLException ignored) {}
+    }
+
+    private record Idle(Connection connection, long since) {}
+
+    private Connection wrap(Connection physical) {
+        boolean[] returned = {false};
+        boolean[] broken = {false};
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close" -> {
+                            if (!returned[0]) {
+                                returned[0] = true;
+                                release(physical, broken[0]);
+                            }
+                            return null;
+                        }
+                        case "isClosed" -> {
+                            return returned[0] || physical.isClosed();
+                        }
+                        case "unwrap", "isWrapperFor", "equals", "hashCode", "toString" -> { /* fall through to physical */ }
+                        default -> {
+                            if (returned[0]) throw new SQLException("Connection already returned to pool.");
+                        }
+                    }
+                    try {
+                        return method.invoke(physical, args);
+                    } catch (InvocationTargetException e) {
+                        if (e.getCause() instanceof SQLException sql && sql.getSQLState() != null
+                                && sql.getSQLState().startsWith("08")) {
+                            broken[0] = true;
+                        }
+                        throw e.getCause();
+                    }
+                });
+    }
+}
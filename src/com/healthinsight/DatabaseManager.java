@@ -3,13 +3,20 @@ package com.healthinsight;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 /**
  * DatabaseManager
  * - MySQL + JDBC
  * - Creates database/tables if permitted
  * - Saves/fetches user assessments
+ * - One instance targets one database; ShardedDatabaseManager routes across several
  *
  * Make sure you add MySQL Connector/J to the classpath (com.mysql.cj.jdbc.Driver).
  */
@@ -24,7 +31,42 @@ public class DatabaseManager {
     // -----------------------------------
 
     private static final String JDBC_DRIVER = "com.mysql.cj.jdbc.Driver";
+    private static final int DEFAULT_POOL_SIZE = 8;
+    // Unquoted MySQL identifier characters; the name also goes into the JDBC URL
+    private static final Pattern DB_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_$]{1,64}");
+
+    private final String host;
+    private final int port;
+    private final String dbName;
+    private final String dbUser;
+    private final String dbPass;
+    private final int poolSize;
+
+    private volatile ConnectionPool pool;
     private boolean connected = false;
+    private final List<AssessmentListener> assessmentListeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger savesInFlight = new AtomicInteger();
+
+    public DatabaseManager() {
+        this(DB_HOST, DB_PORT, DB_NAME, DB_USER, DB_PASS, DEFAULT_POOL_SIZE);
+    }
+
+    /** Same server and credentials as the defaults, different schema (e.g. one per local shard). */
+    public DatabaseManager(String dbName) {
+        this(DB_HOST, DB_PORT, dbName, DB_USER, DB_PASS, DEFAULT_POOL_SIZE);
+    }
+
+    public DatabaseManager(String host, int port, String dbName, String dbUser, String dbPass, int poolSize) {
+        if (dbName == null || !DB_NAME_PATTERN.matcher(dbName).matches()) {
+            throw new IllegalArgumentException("Invalid database name: " + dbName);
+        }
+        this.host = host;
+        this.port = port;
+        this.dbName = dbName;
+        this.dbUser = dbUser;
+        this.dbPass = dbPass;
+        this.poolSize = poolSize;
+    }
 
     public void initializeDatabase() {
         try {
@@ -36,15 +78,15 @@ public class DatabaseManager {
         }
 
         // 1) Create DB if not exists (requires privileges)
-        try (Connection conn = DriverManager.getConnection(serverUrl(), DB_USER, DB_PASS);
+        try (Connection conn = DriverManager.getConnection(serverUrl(), dbUser, dbPass);
              Statement st = conn.createStatement()) {
-            st.executeUpdate("CREATE DATABASE IF NOT EXISTS " + DB_NAME + " CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci");
+            st.executeUpdate("CREATE DATABASE IF NOT EXISTS `" + dbName + "` CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci");
         } catch (SQLException e) {
             System.err.println("Could not create database (may lack privileges): " + e.getMessage());
         }
 
         // 2) Create tables if not exists
-        try (Connection conn = DriverManager.getConnection(dbUrl(), DB_USER, DB_PASS);
+        try (Connection conn = connection();
              Statement st = conn.createStatement()) {
 
             st.executeUpdate("""
@@ -82,12 +124,27 @@ public class DatabaseManager {
         return connected;
     }
 
+    /** Human-readable location of this database, also used as its stable shard identity. */
+    public String describe() {
+        return host + ":" + port + "/" + dbName;
+    }
+
+    public ConnectionPool getPool() {
+        return pool();
+    }
+
+    public void close() {
+        ConnectionPool p = pool;
+        if (p != null) p.close();
+        connected = false;
+    }
+
     public long ensureUser(String name, int age, String sex) throws SQLException {
         Long existing = findUserIdByName(name);
         if (existing != null) return existing;
 
         String sql = "INSERT INTO users(name, age, sex) VALUES(?,?,?)";
-        try (Connection conn = DriverManager.getConnection(dbUrl(), DB_USER, DB_PASS);
+        try (Connection conn = connection();
              PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             ps.setString(1, name);
             ps.setInt(2, age);
@@ -102,7 +159,7 @@ public class DatabaseManager {
 
     public Long findUserIdByName(String name) throws SQLException {
         String sql = "SELECT id FROM users WHERE name = ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl(), DB_USER, DB_PASS);
+        try (Connection conn = connection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, name);
             try (ResultSet rs = ps.executeQuery()) {
@@ -118,23 +175,86 @@ public class DatabaseManager {
                                String advice,
                                boolean urgent,
                                String notes) throws SQLException {
-        String sql = "INSERT INTO assessments(user_id, symptoms, top_conditions, advice, urgent, notes) VALUES(?,?,?,?,?,?)";
-        try (Connection conn = DriverManager.getConnection(dbUrl(), DB_USER, DB_PASS);
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setLong(1, userId);
-            ps.setString(2, symptomsCsv);
-            ps.setString(3, topConditions);
-            ps.setString(4, advice);
-            ps.setBoolean(5, urgent);
-            ps.setString(6, emptyToNull(notes));
-            ps.executeUpdate();
+        // Counted until the listeners have run, so they can tell whether an earlier id may still arrive
+        savesInFlight.incrementAndGet();
+        try {
+            String sql = "INSERT INTO assessments(user_id, symptoms, top_conditions, advice, urgent, notes) VALUES(?,?,?,?,?,?)";
+            long id;
+            try (Connection conn = connection();
+                 PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                ps.setLong(1, userId);
+                ps.setString(2, symptomsCsv);
+                ps.setString(3, topConditions);
+                ps.setString(4, advice);
+                ps.setBoolean(5, urgent);
+                ps.setString(6, emptyToNull(notes));
+                ps.executeUpdate();
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    id = rs.next() ? rs.getLong(1) : -1;
+                }
+            }
+            if (id < 0 || assessmentListeners.isEmpty()) return;
+
+            AssessmentRecord saved = new AssessmentRecord(id, userId, symptomsCsv, topConditions, advice,
+                    urgent, emptyToNull(notes), LocalDateTime.now());
+            for (AssessmentListener l : assessmentListeners) {
+                try {
+                    l.onAssessmentSaved(saved);
+                } catch (RuntimeException e) {
+                    System.err.println("Assessment listener failed: " + e.getMessage());
+                }
+            }
+        } finally {
+            savesInFlight.decrementAndGet();
+        }
+    }
+
+    /** Saves currently between starting their insert and finishing their listeners. */
+    int savesInFlight() {
+        return savesInFlight.get();
+    }
+
+    /** Registers a callback invoked after each saveAssessment commit (not for rebalancing imports). */
+    public void addAssessmentListener(AssessmentListener listener) {
+        assessmentListeners.add(listener);
+    }
+
+    public void removeAssessmentListener(AssessmentListener listener) {
+        assessmentListeners.remove(listener);
+    }
+
+    /**
+     * Streams every assessment with id greater than afterId, in id order, without
+     * materialising the result set (MySQL row-by-row streaming).
+     */
+    public void streamAssessmentsAfter(long afterId, Consumer<AssessmentRecord> sink) throws SQLException {
+        String sql = "SELECT id, user_id, symptoms, top_conditions, advice, urgent, notes, created_at " +
+                     "FROM assessments WHERE id > ? ORDER BY id";
+        try (Connection conn = connection();
+             PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(Integer.MIN_VALUE);
+            ps.setLong(1, afterId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    sink.accept(new AssessmentRecord(
+                        rs.getLong("id"),
+                        rs.getLong("user_id"),
+                        rs.getString("symptoms"),
+                        rs.getString("top_conditions"),
+                        rs.getString("advice"),
+                        rs.getBoolean("urgent"),
+                        rs.getString("notes"),
+                        rs.getTimestamp("created_at").toLocalDateTime()
+                    ));
+                }
+            }
         }
     }
 
     public List<AssessmentRecord> fetchRecentAssessments(long userId, int limit) throws SQLException {
         String sql = "SELECT id, symptoms, top_conditions, advice, urgent, notes, created_at " +
                      "FROM assessments WHERE user_id = ? ORDER BY created_at DESC LIMIT ?";
-        try (Connection conn = DriverManager.getConnection(dbUrl(), DB_USER, DB_PASS);
+        try (Connection conn = connection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setLong(1, userId);
             ps.setInt(2, limit);
@@ -157,17 +277,215 @@ public class DatabaseManager {
         }
     }
 
+    public AssessmentCounts countAssessmentsSince(LocalDateTime since) throws SQLException {
+        String sql = "SELECT COUNT(*) AS total, COALESCE(SUM(urgent), 0) AS urgent_total " +
+                     "FROM assessments WHERE created_at >= ?";
+        try (Connection conn = connection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setTimestamp(1, Timestamp.valueOf(since));
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return new AssessmentCounts(rs.getLong("total"), rs.getLong("urgent_total"));
+            }
+        }
+    }
+
+    /* ---------- Bulk access used by shard rebalancing ---------- */
+
+    public List<UserRecord> listUsers() throws SQLException {
+        String sql = "SELECT id, name, age, sex FROM users ORDER BY id";
+        try (Connection conn = connection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            List<UserRecord> out = new ArrayList<>();
+            while (rs.next()) {
+                out.add(new UserRecord(rs.getLong("id"), rs.getString("name"), rs.getInt("age"), rs.getString("sex")));
+            }
+            return out;
+        }
+    }
+
+    /**
+     * Adds the assessments.moved_from_id column that importUser uses to recognise rows it
+     * has already copied. Existing tables are altered once; safe to call on every start.
+     */
+    public void ensureMoveTracking() throws SQLException {
+        try (Connection conn = connection()) {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT 1 FROM information_schema.COLUMNS " +
+                    "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'assessments' AND COLUMN_NAME = 'moved_from_id'");
+                 ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) return;
+            }
+            try (Statement st = conn.createStatement()) {
+                st.executeUpdate("ALTER TABLE assessments ADD COLUMN moved_from_id BIGINT NULL, " +
+                                 "ADD UNIQUE KEY uk_moved_from (moved_from_id)");
+            }
+        }
+    }
+
+    /**
+     * Copies a user and their assessments into this database in one transaction, keeping
+     * the original timestamps. Each record's id must identify its source row uniquely across
+     * every database rows may come from (ShardedDatabaseManager passes global ids); it is
+     * stored in moved_from_id, so a move that was interrupted can simply be repeated without
+     * duplicating or merging rows. An existing user with the same name is reused.
+     * Requires ensureMoveTracking(). Returns the user's id in this database.
+     */
+    public long importUser(UserRecord user, List<AssessmentRecord> assessments) throws SQLException {
+        try (Connection conn = connection()) {
+            conn.setAutoCommit(false);
+            Long existing = null;
+            try (PreparedStatement ps = conn.prepareStatement("SELECT id FROM users WHERE name = ? FOR UPDATE")) {
+                ps.setString(1, user.name());
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) existing = rs.getLong("id");
+                }
+            }
+            long newId;
+            if (existing != null) {
+                newId = existing;
+            } else {
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "INSERT INTO users(name, age, sex) VALUES(?,?,?)", Statement.RETURN_GENERATED_KEYS)) {
+                    ps.setString(1, user.name());
+                    ps.setInt(2, user.age());
+                    ps.setString(3, user.sex());
+                    ps.executeUpdate();
+                    try (ResultSet rs = ps.getGeneratedKeys()) {
+                        if (!rs.next()) throw new SQLException("Could not import user.");
+                        newId = rs.getLong(1);
+                    }
+                }
+            }
+            // A row copied by an earlier, interrupted attempt hits uk_moved_from and is left as is
+            String sql = "INSERT INTO assessments(user_id, symptoms, top_conditions, advice, urgent, notes, created_at, moved_from_id) " +
+                         "VALUES(?,?,?,?,?,?,?,?) ON DUPLICATE KEY UPDATE id = id";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (AssessmentRecord r : assessments) {
+                    ps.setLong(1, newId);
+                    ps.setString(2, r.symptoms());
+                    ps.setString(3, r.topConditions());
+                    ps.setString(4, r.advice());
+                    ps.setBoolean(5, r.urgent());
+                    ps.setString(6, r.notes());
+                    ps.setTimestamp(7, Timestamp.valueOf(r.createdAt()));
+                    ps.setLong(8, r.id());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            conn.commit();
+            return newId;
+        }
+    }
+
+    /** Deletes a user; their assessments go with them via ON DELETE CASCADE. */
+    public void deleteUser(long userId) throws SQLException {
+        try (Connection conn = connection();
+             PreparedStatement ps = conn.prepareStatement("DELETE FROM users WHERE id = ?")) {
+            ps.setLong(1, userId);
+            ps.executeUpdate();
+        }
+    }
+
+    /* ---------- Shard bookkeeping (see ShardedDatabaseManager) ---------- */
+
+    /** Creates the routing tables ShardedDatabaseManager keeps on its first shard. */
+    public void ensureShardBookkeeping() throws SQLException {
+        try (Connection conn = connection();
+             Statement st = conn.createStatement()) {
+            st.executeUpdate("""
+                CREATE TABLE IF NOT EXISTS shard_settings (
+                  name VARCHAR(64) PRIMARY KEY,
+                  value VARCHAR(255) NOT NULL
+                ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+                """);
+
+            st.executeUpdate("""
+                CREATE TABLE IF NOT EXISTS user_forwarding (
+                  old_id BIGINT PRIMARY KEY,
+                  new_id BIGINT NOT NULL
+                ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+                """);
+        }
+    }
+
+    public String readShardSetting(String name) throws SQLException {
+        try (Connection conn = connection();
+             PreparedStatement ps = conn.prepareStatement("SELECT value FROM shard_settings WHERE name = ?")) {
+            ps.setString(1, name);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString("value") : null;
+            }
+        }
+    }
+
+    /** Stores a setting; a null value deletes it. */
+    public void writeShardSetting(String name, String value) throws SQLException {
+        try (Connection conn = connection()) {
+            if (value == null) {
+                try (PreparedStatement ps = conn.prepareStatement("DELETE FROM shard_settings WHERE name = ?")) {
+                    ps.setString(1, name);
+                    ps.executeUpdate();
+                }
+                return;
+            }
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO shard_settings(name, value) VALUES(?,?) ON DUPLICATE KEY UPDATE value = VALUES(value)")) {
+                ps.setString(1, name);
+                ps.setString(2, value);
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    public void saveUserForwarding(long oldId, long newId) throws SQLException {
+        try (Connection conn = connection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "INSERT INTO user_forwarding(old_id, new_id) VALUES(?,?) ON DUPLICATE KEY UPDATE new_id = VALUES(new_id)")) {
+            ps.setLong(1, oldId);
+            ps.setLong(2, newId);
+            ps.executeUpdate();
+        }
+    }
+
+    public Map<Long, Long> loadUserForwarding() throws SQLException {
+        try (Connection conn = connection();
+             PreparedStatement ps = conn.prepareStatement("SELECT old_id, new_id FROM user_forwarding");
+             ResultSet rs = ps.executeQuery()) {
+            Map<Long, Long> out = new HashMap<>();
+            while (rs.next()) out.put(rs.getLong("old_id"), rs.getLong("new_id"));
+            return out;
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        return pool().getConnection();
+    }
+
+    private ConnectionPool pool() {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (this) {
+                if (pool == null) pool = new ConnectionPool(dbUrl(), dbUser, dbPass, poolSize);
+                p = pool;
+            }
+        }
+        return p;
+    }
+
     private String emptyToNull(String s) {
         return (s == null || s.isBlank()) ? null : s;
     }
 
     private String serverUrl() {
-        return "jdbc:mysql://" + DB_HOST + ":" + DB_PORT +
+        return "jdbc:mysql://" + host + ":" + port +
                "/?serverTimezone=UTC&allowPublicKeyRetrieval=true&useSSL=false";
     }
 
     private String dbUrl() {
-        return "jdbc:mysql://" + DB_HOST + ":" + DB_PORT + "/" + DB_NAME +
+        return "jdbc:mysql://" + host + ":" + port + "/" + dbName +
                "?serverTimezone=UTC&useUnicode=true&characterEncoding=utf8&allowPublicKeyRetrieval=true&useSSL=false";
     }
 
@@ -183,6 +501,15 @@ public class DatabaseManager {
         LocalDateTime createdAt
     ) {}
 
+    @FunctionalInterface
+    public interface AssessmentListener {
+        void onAssessmentSaved(AssessmentRecord record);
+    }
+
+    public record UserRecord(long id, String name, int age, String sex) {}
+
+    public record AssessmentCounts(long total, long urgent) {}
+
     // ---------- Quick connection test ----------
     public static void main(String[] args) {
         String url = "jdbc:mysql://localhost:3306/health_insight?serverTimezone=UTC&useUnicode=true&characterEncoding=utf8&allowPublicKeyRetrieval=true&useSSL=false";
@@ -0,0 +1,123 @@
+package com.healthinsight;
+
+import java.util.*;
+
+/**
+ * DemographicModifiers
+ * - Data-driven score adjustments per age band and sex, replacing hard-coded age bumps
+ * - Compiled once into per-bucket multiplier/offset vectors over condition ids;
+ *   SymptomEngine folds the multipliers into its per-bucket weight rows at load time
+ * - Age bands are derived from the table: every age bound it uses starts a new band, so
+ *   only as many buckets exist as the table distinguishes
+ * - Every condition named in the table is checked against the condition dictionary
+ *
+ * Table format, one per line ('#' starts a comment):
+ *   Condition Name | age: 65- | sex: Female | multiply: 1.5 | add: 1
+ *   Migraine                   | sex: Female, Other | multiply: 1.2
+ * Age and sex take the same values as in urgent rules (see FieldParser): "70", "18-64", "65-"
+ * or "-5", bounds inclusive; omitted age/sex means all.
+ * Multipliers scale the symptom weights of that condition; "add" is an offset applied
+ * only to conditions that already scored from the selected symptoms.
+ */
+public class DemographicModifiers {
+
+    private final int[] bandStarts;       // ascending; bandStarts[0] == Integer.MIN_VALUE
+    private final double[][] multipliers; // [bucket][condition]
+    private final int[][] offsets;        // [bucket][condition]
+
+    private DemographicModifiers(int[] bandStarts, double[][] multipliers, int[][] offsets) {
+        this.bandStarts = bandStarts;
+        this.multipliers = multipliers;
+        this.offsets = offsets;
+    }
+
+    public static DemographicModifiers compile(String table, List<String> conditionNames) {
+        Map<String, Integer> ids = new HashMap<>();
+        for (String c : conditionNames) ids.putIfAbsent(c, ids.size());
+
+        List<Modifier> rows = new ArrayList<>();
+        TreeSet<Integer> starts = new TreeSet<>();
+        starts.add(Integer.MIN_VALUE);
+        for (FieldParser.Line line : FieldParser.lines(table)) {
+            Modifier m = parse(line, ids);
+            rows.add(m);
+            starts.add(m.minAge());
+            if (m.maxAge() != Integer.MAX_VALUE) starts.add(m.maxAge() + 1);
+        }
+        int[] bandStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+
+        int buckets = bandStarts.length * SymptomEngine.SEX_BUCKETS;
+        double[][] mult = new double[buckets][ids.size()];
+        int[][] add = new int[buckets][ids.size()];
+        for (double[] row : mult) Arrays.fill(row, 1.0);
+
+        for (Modifier m : rows) {
+            // Bounds are band starts, so every band starting inside the range lies wholly within it
+            for (int band = bandOf(bandStarts, m.minAge()); band < bandStarts.length && bandStarts[band] <= m.maxAge(); band++) {
+                for (int sex = 0; sex < SymptomEngine.SEX_BUCKETS; sex++) {
+                    if ((m.sexMask() & (1 << sex)) == 0) continue;
+                    int b = band * SymptomEngine.SEX_BUCKETS + sex;
+                    mult[b][m.condition()] *= m.factor();
+                    add[b][m.condition()] += m.offset();
+                }
+            }
+        }
+        return new DemographicModifiers(bandStarts, mult, add);
+    }
+
+    /** Number of age-band/sex buckets; bucket ids are 0..buckets()-1. */
+    int buckets() {
+        return multipliers.length;
+    }
+
+    int bucketOf(int age, String sex) {
+        return bandOf(bandStarts, age) * SymptomEngine.SEX_BUCKETS + SymptomEngine.sexBucket(sex);
+    }
+
+    double multiplier(int bucket, int condition) {
+        return multipliers[bucket][condition];
+    }
+
+    /** Offsets for one bucket, indexed by condition id. Callers must not modify the array. */
+    int[] offsets(int bucket) {
+        return offsets[bucket];
+    }
+
+    private static Modifier parse(FieldParser.Line line, Map<String, Integer> ids) {
+        int lineNo = line.number();
+        Integer cond = ids.get(line.head());
+        if (cond == null) throw FieldParser.error(lineNo, "unknown condition '" + line.head() + "'");
+
+        int minAge = Integer.MIN_VALUE, maxAge = Integer.MAX_VALUE;
+        int sexMask = FieldParser.allSexes();
+        double factor = 1.0;
+        int offset = 0;
+        for (FieldParser.Field f : line.fields()) {
+            try {
+                switch (f.key()) {
+                    case "age" -> {
+                        int[] range = FieldParser.ageRange(f.value(), lineNo);
+                        minAge = range[0];
+                        maxAge = range[1];
+                    }
+                    case "sex" -> sexMask = FieldParser.sexMask(f.value(), lineNo);
+                    case "multiply" -> factor = Double.parseDouble(f.value());
+                    case "add" -> offset = Integer.parseInt(f.value());
+                    default -> throw FieldParser.error(lineNo, "unknown field '" + f.key() + "'");
+                }
+            } catch (NumberFormatException e) {
+                throw FieldParser.error(lineNo, "bad number in '" + f.text() + "'");
+            }
+        }
+        if (factor < 0) throw FieldParser.error(lineNo, "multiplier must not be negative");
+        return new Modifier(cond, minAge, maxAge, sexMask, factor, offset);
+    }
+
+    /** Index of the band containing age: the last start not above it. */
+    private static int bandOf(int[] bandStarts, int age) {
+        int i = Arrays.binarySearch(bandStarts, age);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    private record Modifier(int condition, int minAge, int maxAge, int sexMask, double factor, int offset) {}
+}
@@ -0,0 +1,85 @@
+package com.healthinsight;
+
+import java.util.*;
+
+/**
+ * FieldParser
+ * - Shared line syntax of the declarative tables (urgent rules, demographic modifiers)
+ * - A line is "head | key: value | key: value"; '#' starts a comment and blank lines are skipped
+ * - The fields both tables understand (age, sex) are parsed here, so the two formats accept
+ *   the same values and report the same errors
+ * Errors are IllegalArgumentExceptions prefixed with "Line N:".
+ */
+final class FieldParser {
+
+    private FieldParser() {}
+
+    /** Splits a table into non-empty lines of head plus key/value fields (keys lower-cased). */
+    static List<Line> lines(String text) {
+        List<Line> out = new ArrayList<>();
+        int lineNo = 0;
+        for (String raw : text.split("\\R")) {
+            lineNo++;
+            int hash = raw.indexOf('#');
+            String line = (hash >= 0 ? raw.substring(0, hash) : raw).trim();
+            if (line.isEmpty()) continue;
+
+            String[] parts = line.split("\\|");
+            List<Field> fields = new ArrayList<>(parts.length - 1);
+            for (int i = 1; i < parts.length; i++) {
+                String f = parts[i].trim();
+                int colon = f.indexOf(':');
+                if (colon < 0) throw error(lineNo, "expected 'key: value' in '" + f + "'");
+                fields.add(new Field(f.substring(0, colon).trim().toLowerCase(Locale.ROOT), f.substring(colon + 1).trim(), f));
+            }
+            out.add(new Line(lineNo, parts[0].trim(), fields));
+        }
+        return out;
+    }
+
+    /**
+     * Parses an inclusive age range: "70", "18-64", "65-" (and over) or "-5" (and under).
+     * Returns {min, max}; an open bound is Integer.MIN_VALUE / Integer.MAX_VALUE.
+     */
+    static int[] ageRange(String value, int lineNo) {
+        int min = Integer.MIN_VALUE, max = Integer.MAX_VALUE;
+        int dash = value.indexOf('-');
+        try {
+            if (dash < 0) {
+                min = max = Integer.parseInt(value);
+            } else {
+                String lo = value.substring(0, dash).trim(), hi = value.substring(dash + 1).trim();
+                if (!lo.isEmpty()) min = Integer.parseInt(lo);
+                if (!hi.isEmpty()) max = Integer.parseInt(hi);
+            }
+        } catch (NumberFormatException e) {
+            throw error(lineNo, "bad age range '" + value + "'");
+        }
+        if (min > max) throw error(lineNo, "empty age range '" + value + "'");
+        return new int[]{min, max};
+    }
+
+    /** Parses a comma-separated list of Female, Male or Other into a mask over sex buckets. */
+    static int sexMask(String value, int lineNo) {
+        int mask = 0;
+        for (String s : value.split(",")) {
+            int bucket = SymptomEngine.parseSexValue(s.trim());
+            if (bucket < 0) throw error(lineNo, "unknown sex '" + s.trim() + "' (expected Female, Male or Other)");
+            mask |= 1 << bucket;
+        }
+        return mask;
+    }
+
+    static int allSexes() {
+        return (1 << SymptomEngine.SEX_BUCKETS) - 1;
+    }
+
+    static IllegalArgumentException error(int lineNo, String message) {
+        return new IllegalArgumentException("Line " + lineNo + ": " + message);
+    }
+
+    record Line(int number, String head, List<Field> fields) {}
+
+    /** One "key: value" field; text is the field as written, for error messages. */
+    record Field(String key, String value, String text) {}
+}
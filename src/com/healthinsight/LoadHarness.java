@@ -0,0 +1,544 @@
+package com.healthinsight;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LoadHarness
+ * - Drives SymptomEngine and the assessment store with a simulated user population
+ * - Open-loop: operations are scheduled at a fixed arrival rate, independent of how fast
+ *   earlier ones complete, so a stall shows up as queueing delay instead of hiding it
+ * - Latency is measured from each operation's intended start time (coordinated-omission
+ *   corrected) and, separately, from when it actually started (service time)
+ * - Soak mode samples heap, GC and connection usage at a fixed interval for the whole run
+ * - At the end the harness waits for every queued operation; any still unfinished after
+ *   drainTimeout seconds are recorded at (now - intended start) and reported as incomplete,
+ *   so the slowest operations never silently drop out of the percentiles
+ * - A HISTORY op for a user who has not saved yet does no read; it is counted as a miss
+ *   and kept out of the latency percentiles
+ *
+ * Runs against an in-memory store by default; pass store=mysql to hit DatabaseManager, or
+ * store=sharded shards=N to spread users over N local schemas (health_insight_0..N-1)
+ * through ShardedDatabaseManager.
+ *
+ * Usage (all optional, key=value):
+ *   users=5000 rate=2000 duration=60 threads=256 mix=evaluate:60,save:25,history:15
+ *   skew=1.1 maxSymptoms=5 store=memory|mysql|sharded shards=4 soak=false sampleEvery=30 warmup=5
+ *   drainTimeout=300
+ */
+public class LoadHarness {
+
+    enum Op { EVALUATE, SAVE, HISTORY }
+
+    private final SymptomEngine engine = new SymptomEngine();
+    private final Store store;
+    private final Config cfg;
+    private final List<String> symptoms;
+    private final double[] symptomCdf;
+
+    private final Map<Op, LatencyHistogram> corrected = new EnumMap<>(Op.class);
+    private final Map<Op, LatencyHistogram> service = new EnumMap<>(Op.class);
+    private final Map<Op, LongAdder> errors = new EnumMap<>(Op.class);
+    private final Map<Op, LongAdder> misses = new EnumMap<>(Op.class);
+    private final LongAdder completed = new LongAdder();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final Set<Pending> outstanding = ConcurrentHashMap.newKeySet();
+    private long incomplete = 0;
+
+    public LoadHarness(Config cfg, Store store) {
+        this.cfg = cfg;
+        this.store = store;
+        this.symptoms = engine.getAvailableSymptoms();
+        this.symptomCdf = zipfCdf(symptoms.size(), cfg.skew);
+        for (Op op : Op.values()) {
+            corrected.put(op, new LatencyHistogram());
+            service.put(op, new LatencyHistogram());
+            errors.put(op, new LongAdder());
+            misses.put(op, new LongAdder());
+        }
+    }
+
+    public void run() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(cfg.threads, r -> {
+            Thread t = new Thread(r, "load-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "load-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        if (cfg.soak) {
+            SoakSampler soak = new SoakSampler();
+            sampler.scheduleAtFixedRate(soak::sample, cfg.sampleEverySec, cfg.sampleEverySec, TimeUnit.SECONDS);
+        }
+
+        long intervalNs = Math.max(1, 1_000_000_000L / cfg.rate);
+        long start = System.nanoTime();
+        long warmupEnd = start + TimeUnit.SECONDS.toNanos(cfg.warmupSec);
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(cfg.durationSec);
+        SplittableRandom rnd = new SplittableRandom(42);
+
+        System.out.printf("Load: users=%d rate=%d/s duration=%ds warmup=%ds threads=%d store=%s%n",
+                cfg.users, cfg.rate, cfg.durationSec, cfg.warmupSec, cfg.threads, store.name());
+
+        long i = 0;
+        while (true) {
+            long intended = start + i * intervalNs;
+            if (intended >= end) break;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+
+            Op op = pickOp(rnd);
+            int user = rnd.nextInt(cfg.users);
+            List<String> selected = pickSymptoms(rnd);
+            Pending p = new Pending(op, intended, intended >= warmupEnd);
+            outstanding.add(p);
+            inFlight.incrementAndGet();
+            workers.execute(() -> execute(p, user, selected));
+            i++;
+        }
+
+        workers.shutdown();
+        if (!workers.awaitTermination(cfg.drainTimeoutSec, TimeUnit.SECONDS)) {
+            // Whatever is left is the slowest work of the run; record it rather than lose it
+            long now = System.nanoTime();
+            for (Pending p : outstanding) {
+                if (!p.claim()) continue;
+                if (p.measured) corrected.get(p.op).record(now - p.intended);
+                incomplete++;
+            }
+            workers.shutdownNow();
+        }
+        sampler.shutdownNow();
+        report(TimeUnit.SECONDS.toNanos(cfg.durationSec));
+    }
+
+    /** One scheduled operation; claim() makes sure it is recorded exactly once. */
+    private static final class Pending {
+        final Op op;
+        final long intended;
+        final boolean measured;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Pending(Op op, long intended, boolean measured) {
+            this.op = op;
+            this.intended = intended;
+            this.measured = measured;
+        }
+
+        boolean claim() {
+            return done.compareAndSet(false, true);
+        }
+    }
+
+    private void execute(Pending p, int user, List<String> selected) {
+        Op op = p.op;
+        long actualStart = System.nanoTime();
+        boolean miss = false;
+        try {
+            String name = "load-user-" + user;
+            int age = 1 + (user * 37) % 95;
+            String sex = (user & 1) == 0 ? "Female" : "Male";
+            switch (op) {
+                case EVALUATE -> engine.evaluate(selected, age, sex);
+                case SAVE -> {
+                    SymptomEngine.EvaluationResult res = engine.evaluate(selected, age, sex);
+                    long userId = store.ensureUser(name, age, sex);
+                    store.saveAssessment(userId, String.join(", ", selected),
+                            res.getTopSuggestions().get(0).conditionName(), "", res.isUrgent(), null);
+                }
+                case HISTORY -> {
+                    Long userId = store.findUserIdByName(name);
+                    if (userId == null) miss = true;
+                    else store.fetchRecentAssessments(userId, 10);
+                }
+            }
+        } catch (Exception e) {
+            if (p.measured) errors.get(op).increment();
+        } finally {
+            long done = System.nanoTime();
+            if (p.claim() && p.measured) {
+                if (miss) {
+                    misses.get(op).increment();
+                } else {
+                    corrected.get(op).record(done - p.intended);
+                    service.get(op).record(done - actualStart);
+                }
+                completed.increment();
+            }
+            outstanding.remove(p);
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private Op pickOp(SplittableRandom rnd) {
+        int r = rnd.nextInt(cfg.mixTotal);
+        if (r < cfg.mixEvaluate) return Op.EVALUATE;
+        if (r < cfg.mixEvaluate + cfg.mixSave) return Op.SAVE;
+        return Op.HISTORY;
+    }
+
+    private List<String> pickSymptoms(SplittableRandom rnd) {
+        int n = 1 + rnd.nextInt(cfg.maxSymptoms);
+        LinkedHashSet<String> picked = new LinkedHashSet<>();
+        for (int k = 0; k < n; k++) {
+            int idx = Arrays.binarySearch(symptomCdf, rnd.nextDouble());
+            if (idx < 0) idx = -idx - 1;
+            picked.add(symptoms.get(Math.min(idx, symptoms.size() - 1)));
+        }
+        return new ArrayList<>(picked);
+    }
+
+    private static double[] zipfCdf(int n, double skew) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1.0 / Math.pow(k + 1, skew);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < n; k++) cdf[k] /= sum;
+        return cdf;
+    }
+
+    private void report(long measuredNs) {
+        double seconds = measuredNs / 1e9;
+        System.out.printf("%nCompleted %d ops in %.1fs (%.0f ops/s)%n", completed.sum(), seconds, completed.sum() / seconds);
+        if (incomplete > 0) {
+            System.out.printf("WARNING: %d ops had not finished after %ds; counted in 'corrected' at their wait so far%n",
+                    incomplete, cfg.drainTimeoutSec);
+        }
+        System.out.println("Latency in microseconds; 'corrected' is measured from intended start time.");
+        System.out.printf("%-9s %-9s %9s %8s %8s %9s %9s %9s %9s %9s %9s%n",
+                "op", "measure", "count", "errors", "misses", "ops/s", "p50", "p90", "p99", "p99.9", "max");
+        for (Op op : Op.values()) {
+            printRow(op, "corrected", corrected.get(op), seconds);
+            printRow(op, "service", service.get(op), seconds);
+        }
+    }
+
+    private void printRow(Op op, String label, LatencyHistogram h, double seconds) {
+        System.out.printf("%-9s %-9s %9d %8d %8d %9.0f %9.0f %9.0f %9.0f %9.0f %9.0f%n",
+                op.name().toLowerCase(), label, h.count(), errors.get(op).sum(), misses.get(op).sum(), h.count() / seconds,
+                h.percentile(50) / 1e3, h.percentile(90) / 1e3, h.percentile(99) / 1e3,
+                h.percentile(99.9) / 1e3, h.max() / 1e3);
+    }
+
+    /* ---------- Soak sampling ---------- */
+
+    private class SoakSampler {
+        private final long startNs = System.nanoTime();
+        private long lastGcCount = 0;
+        private long lastGcMs = 0;
+        private long lastCompleted = 0;
+
+        void sample() {
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            long gcCount = 0, gcMs = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcCount += Math.max(0, gc.getCollectionCount());
+                gcMs += Math.max(0, gc.getCollectionTime());
+            }
+            long done = completed.sum();
+            System.out.printf("[soak %6ds] heap=%dMB/%dMB gc=+%d (+%dms) ops=+%d inflight=%d %s%n",
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNs),
+                    heap.getUsed() >> 20, heap.getCommitted() >> 20,
+                    gcCount - lastGcCount, gcMs - lastGcMs,
+                    done - lastCompleted, inFlight.get(), store.connectionStats());
+            lastGcCount = gcCount;
+            lastGcMs = gcMs;
+            lastCompleted = done;
+        }
+    }
+
+    /* ---------- Latency histogram ---------- */
+
+    /**
+     * Log-linear histogram over nanoseconds: 64 power-of-two ranges, each split into 32
+     * linear sub-buckets, so any recorded value is reported within ~3% of its true value.
+     * Recording is lock-free and allocation-free.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_COUNT);
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong maxValue = new AtomicLong();
+
+        void record(long nanos) {
+            long v = Math.max(0, nanos);
+            counts.incrementAndGet(index(v));
+            total.increment();
+            long m;
+            while (v > (m = maxValue.get()) && !maxValue.compareAndSet(m, v)) { /* retry */ }
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        long max() {
+            return maxValue.get();
+        }
+
+        long percentile(double p) {
+            long n = total.sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(p / 100.0 * n);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return Math.min(upperBound(i), maxValue.get());
+            }
+            return maxValue.get();
+        }
+
+        private static int index(long v) {
+            if (v < SUB_COUNT) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);          // >= SUB_BITS
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+            return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+        }
+
+        private static long upperBound(int index) {
+            int range = index / SUB_COUNT;
+            int sub = index % SUB_COUNT;
+            if (range == 0) return sub;
+            int exp = range + SUB_BITS - 1;
+            long base = 1L << exp;
+            long step = 1L << (exp - SUB_BITS);
+            return base + (sub + 1) * step - 1;
+        }
+    }
+
+    /* ---------- Store adapters ---------- */
+
+    interface Store {
+        String name();
+        long ensureUser(String name, int age, String sex) throws SQLException;
+        Long findUserIdByName(String name) throws SQLException;
+        void saveAssessment(long userId, String symptomsCsv, String topConditions, String advice,
+                            boolean urgent, String notes) throws SQLException;
+        List<DatabaseManager.AssessmentRecord> fetchRecentAssessments(long userId, int limit) throws SQLException;
+        String connectionStats();
+    }
+
+    static final class MySqlStore implements Store {
+        private final DatabaseManager db;
+
+        MySqlStore(DatabaseManager db) {
+            this.db = db;
+        }
+
+        public String name() { return "mysql(" + db.describe() + ")"; }
+        public long ensureUser(String name, int age, String sex) throws SQLException { return db.ensureUser(name, age, sex); }
+        public Long findUserIdByName(String name) throws SQLException { return db.findUserIdByName(name); }
+        public void saveAssessment(long userId, String symptomsCsv, String topConditions, String advice,
+                                   boolean urgent, String notes) throws SQLException {
+            db.saveAssessment(userId, symptomsCsv, topConditions, advice, urgent, notes);
+        }
+        public List<DatabaseManager.AssessmentRecord> fetchRecentAssessments(long userId, int limit) throws SQLException {
+            return db.fetchRecentAssessments(userId, limit);
+        }
+        public String connectionStats() {
+            ConnectionPool p = db.getPool();
+            return "conns=" + p.getActiveCount() + "/" + p.getOpenCount() + "/" + p.getMaxSize();
+        }
+    }
+
+    static final class ShardedStore implements Store {
+        private final ShardedDatabaseManager db;
+
+        ShardedStore(ShardedDatabaseManager db) {
+            this.db = db;
+        }
+
+        public String name() { return "sharded(" + db.getShardCount() + ")"; }
+        public long ensureUser(String name, int age, String sex) throws SQLException { return db.ensureUser(name, age, sex); }
+        public Long findUserIdByName(String name) throws SQLException { return db.findUserIdByName(name); }
+        public void saveAssessment(long userId, String symptomsCsv, String topConditions, String advice,
+                                   boolean urgent, String notes) throws SQLException {
+            db.saveAssessment(userId, symptomsCsv, topConditions, advice, urgent, notes);
+        }
+        public List<DatabaseManager.AssessmentRecord> fetchRecentAssessments(long userId, int limit) throws SQLException {
+            return db.fetchRecentAssessments(userId, limit);
+        }
+        public String connectionStats() {
+            StringBuilder sb = new StringBuilder("conns=");
+            for (DatabaseManager shard : db.getShards()) {
+                ConnectionPool p = shard.getPool();
+                if (sb.length() > 6) sb.append(' ');
+                sb.append(p.getActiveCount()).append('/').append(p.getOpenCount()).append('/').append(p.getMaxSize());
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Embedded stand-in for the two tables, with the same lookup shapes as the SQL. Only the
+     * newest HISTORY_CAP assessments per user are kept (history reads use LIMIT 10), so soak
+     * heap numbers are not dominated by the stand-in's own growth.
+     */
+    static final class InMemoryStore implements Store {
+        private static final int HISTORY_CAP = 10;
+
+        private final ConcurrentHashMap<String, Long> usersByName = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Long, Deque<DatabaseManager.AssessmentRecord>> assessments = new ConcurrentHashMap<>();
+        private final AtomicLong userSeq = new AtomicLong();
+        private final AtomicLong assessmentSeq = new AtomicLong();
+
+        public String name() { return "memory"; }
+
+        public long ensureUser(String name, int age, String sex) {
+            return usersByName.computeIfAbsent(name, k -> userSeq.incrementAndGet());
+        }
+
+        public Long findUserIdByName(String name) {
+            return usersByName.get(name);
+        }
+
+        public void saveAssessment(long userId, String symptomsCsv, String topConditions, String advice,
+                                   boolean urgent, String notes) {
+            Deque<DatabaseManager.AssessmentRecord> q = assessments.computeIfAbsent(userId, k -> new ConcurrentLinkedDeque<>());
+            q.addFirst(new DatabaseManager.AssessmentRecord(assessmentSeq.incrementAndGet(), userId,
+                    symptomsCsv, topConditions, advice, urgent, notes, LocalDateTime.now()));
+            while (q.size() > HISTORY_CAP) q.pollLast();
+        }
+
+        public List<DatabaseManager.AssessmentRecord> fetchRecentAssessments(long userId, int limit) {
+            Deque<DatabaseManager.AssessmentRecord> q = assessments.get(userId);
+            List<DatabaseManager.AssessmentRecord> out = new ArrayList<>();
+            if (q == null) return out;
+            for (DatabaseManager.AssessmentRecord r : q) {
+                if (out.size() >= limit) break;
+                out.add(r);
+            }
+            return out;
+        }
+
+        public String connectionStats() {
+            return "users=" + usersByName.size();
+        }
+    }
+
+    /* ---------- Configuration ---------- */
+
+    static final class Config {
+        int users = 5000;
+        int rate = 2000;
+        int durationSec = 60;
+        int warmupSec = 5;
+        int threads = 256;
+        double skew = 1.1;
+        int maxSymptoms = 5;
+        boolean soak = false;
+        int sampleEverySec = 30;
+        String store = "memory";
+        int shards = 4;
+        int drainTimeoutSec = 300;
+        int mixEvaluate = 60, mixSave = 25, mixHistory = 15, mixTotal = 100;
+
+        static Config parse(String[] args) {
+            Config c = new Config();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) throw new IllegalArgumentException("Expected key=value, got: " + arg);
+                String k = arg.substring(0, eq), v = arg.substring(eq + 1);
+                switch (k) {
+                    case "users" -> c.users = Integer.parseInt(v);
+                    case "rate" -> c.rate = Integer.parseInt(v);
+                    case "duration" -> c.durationSec = Integer.parseInt(v);
+                    case "warmup" -> c.warmupSec = Integer.parseInt(v);
+                    case "threads" -> c.threads = Integer.parseInt(v);
+                    case "skew" -> c.skew = Double.parseDouble(v);
+                    case "maxSymptoms" -> c.maxSymptoms = Integer.parseInt(v);
+                    case "soak" -> c.soak = Boolean.parseBoolean(v);
+                    case "sampleEvery" -> c.sampleEverySec = Integer.parseInt(v);
+                    case "store" -> c.store = v;
+                    case "shards" -> c.shards = Integer.parseInt(v);
+                    case "drainTimeout" -> c.drainTimeoutSec = Integer.parseInt(v);
+                    case "mix" -> c.parseMix(v);
+                    default -> throw new IllegalArgumentException("Unknown option: " + k);
+                }
+            }
+            if (c.users <= 0 || c.rate <= 0 || c.threads <= 0 || c.maxSymptoms <= 0 || c.shards <= 0) {
+                throw new IllegalArgumentException("users, rate, threads, maxSymptoms and shards must be positive");
+            }
+            return c;
+        }
+
+        private void parseMix(String v) {
+            mixEvaluate = mixSave = mixHistory = 0;
+            for (String part : v.split(",")) {
+                String[] kv = part.split(":");
+                if (kv.length != 2) throw new IllegalArgumentException("mix entries must be op:weight, got: " + part);
+                int w;
+                try {
+                    w = Integer.parseInt(kv[1].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("mix weight must be a whole number, got: " + part);
+                }
+                if (w < 0) throw new IllegalArgumentException("mix weight must not be negative, got: " + part);
+                switch (kv[0].trim()) {
+                    case "evaluate" -> mixEvaluate = w;
+                    case "save" -> mixSave = w;
+                    case "history" -> mixHistory = w;
+                    default -> throw new IllegalArgumentException("Unknown op in mix: " + kv[0]);
+                }
+            }
+            mixTotal = mixEvaluate + mixSave + mixHistory;
+            if (mixTotal <= 0) throw new IllegalArgumentException("mix weights must sum to > 0");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config cfg;
+        try {
+            cfg = Config.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: LoadHarness [users=5000] [rate=2000] [duration=60] [threads=256]"
+                    + " [mix=evaluate:60,save:25,history:15] [skew=1.1] [maxSymptoms=5]"
+                    + " [store=memory|mysql|sharded] [shards=4] [soak=false] [sampleEvery=30] [warmup=5] [drainTimeout=300]");
+            System.exit(2);
+            return;
+        }
+        Store store;
+        if ("mysql".equals(cfg.store)) {
+            DatabaseManager db = new DatabaseManager();
+            db.initializeDatabase();
+            if (!db.isConnected()) {
+                System.err.println("Database is not connected; use store=memory or configure DatabaseManager.");
+                return;
+            }
+            store = new MySqlStore(db);
+        } else if ("sharded".equals(cfg.store)) {
+            List<DatabaseManager> shards = new ArrayList<>();
+            for (int i = 0; i < cfg.shards; i++) {
+                shards.add(new DatabaseManager("health_insight_" + i));
+            }
+            ShardedDatabaseManager db = new ShardedDatabaseManager(shards);
+            db.initializeDatabase();
+            if (!db.isConnected()) {
+                System.err.println("Not every shard is connected; check the local MySQL server and credentials.");
+                return;
+            }
+            store = new ShardedStore(db);
+        } else {
+            store = new InMemoryStore();
+        }
+        new LoadHarness(cfg, store).run();
+    }
+}
@@ -0,0 +1,208 @@
+package com.healthinsight;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ShadowEvaluator
+ * - Mirrors every evaluate() on a primary SymptomEngine onto a candidate engine
+ *   (e.g. one built with SymptomEngine.fromKnowledgeBase from edited weights and advice,
+ *   or with new urgent rules or demographic modifiers loaded)
+ * - The primary thread only copies the inputs and offers them to a bounded queue;
+ *   when the queue is full the sample is dropped and counted, never waited on
+ * - Worker threads run the candidate and aggregate top-k agreement, rank changes, score
+ *   and advice changes on shared conditions, and urgent-flag disagreements
+ *
+ * Do not register a candidate engine as its own primary; its evaluations would mirror forever.
+ * An evaluator runs once: close() stops mirroring, waits for the workers to finish the sample
+ * in hand and abandons whatever is still queued; it cannot be started again afterwards.
+ */
+public class ShadowEvaluator implements SymptomEngine.EvaluationListener, AutoCloseable {
+
+    private final SymptomEngine primary;
+    private final SymptomEngine candidate;
+    private final BlockingQueue<Sample> queue;
+    private final int threads;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = false;
+    private boolean closed = false;
+
+    private final LongAdder mirrored = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder compared = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder top1Agree = new LongAdder();
+    private final LongAdder topSetAgree = new LongAdder();
+    private final LongAdder rankShiftTotal = new LongAdder();
+    private final LongAdder rankChanged = new LongAdder();
+    private final LongAdder scoreChanged = new LongAdder();
+    private final LongAdder scoreDeltaTotal = new LongAdder();
+    private final LongAdder adviceChanged = new LongAdder();
+    private final LongAdder urgentPrimaryOnly = new LongAdder();
+    private final LongAdder urgentCandidateOnly = new LongAdder();
+    private final LongAdder urgentRuleDiffers = new LongAdder();
+
+    public ShadowEvaluator(SymptomEngine primary, SymptomEngine candidate, int queueCapacity, int threads) {
+        if (primary == candidate) throw new IllegalArgumentException("Candidate must be a separate engine.");
+        if (threads <= 0) throw new IllegalArgumentException("threads must be positive");
+        this.primary = primary;
+        this.candidate = candidate;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.threads = threads;
+    }
+
+    public synchronized void start() {
+        if (closed) throw new IllegalStateException("ShadowEvaluator has been closed.");
+        if (running) return;
+        running = true;
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(this::drain, "shadow-eval-" + i);
+            t.setDaemon(true);
+            workers.add(t);
+            t.start();
+        }
+        primary.addEvaluationListener(this);
+    }
+
+    /** Stops mirroring and joins the workers; samples still queued are dropped, not compared. */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (!running) return;
+        primary.removeEvaluationListener(this);
+        running = false;
+        for (Thread t : workers) t.interrupt();
+        boolean interrupted = false;
+        for (Thread t : workers) {
+            while (t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        queue.clear();
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    @Override
+    public void onEvaluation(List<String> selectedSymptoms, int age, String sex, SymptomEngine.EvaluationResult result) {
+        if (queue.offer(new Sample(List.copyOf(selectedSymptoms), age, sex, result))) {
+            mirrored.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    public ShadowStats getStats() {
+        return new ShadowStats(mirrored.sum(), dropped.sum(), compared.sum(), failed.sum(),
+                top1Agree.sum(), topSetAgree.sum(), rankChanged.sum(), rankShiftTotal.sum(),
+                scoreChanged.sum(), scoreDeltaTotal.sum(), adviceChanged.sum(),
+                urgentPrimaryOnly.sum(), urgentCandidateOnly.sum(), urgentRuleDiffers.sum());
+    }
+
+    private void drain() {
+        while (running) {
+            Sample s;
+            try {
+                s = queue.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (s == null) continue;
+            try {
+                compare(s, candidate.evaluate(s.symptoms(), s.age(), s.sex()));
+            } catch (RuntimeException e) {
+                failed.increment();
+            }
+        }
+    }
+
+    private void compare(Sample s, SymptomEngine.EvaluationResult shadow) {
+        List<String> p = names(s.primary());
+        List<String> c = names(shadow);
+
+        if (!p.isEmpty() && !c.isEmpty() && p.get(0).equals(c.get(0))) top1Agree.increment();
+        if (new HashSet<>(p).equals(new HashSet<>(c))) topSetAgree.increment();
+
+        // A condition that drops out of the candidate's list counts as moving to the end
+        int shift = 0;
+        for (int i = 0; i < p.size(); i++) {
+            int j = c.indexOf(p.get(i));
+            shift += Math.abs((j < 0 ? Math.max(p.size(), c.size()) : j) - i);
+        }
+        if (shift > 0) rankChanged.increment();
+        rankShiftTotal.add(shift);
+
+        // Conditions both engines suggest: did the candidate score or advise them differently?
+        int scoreDelta = 0;
+        boolean adviceDiffers = false;
+        for (SymptomEngine.ConditionSuggestion ps : s.primary().getTopSuggestions()) {
+            for (SymptomEngine.ConditionSuggestion cs : shadow.getTopSuggestions()) {
+                if (!ps.conditionName().equals(cs.conditionName())) continue;
+                scoreDelta += Math.abs(ps.score() - cs.score());
+                if (!Objects.equals(ps.advice(), cs.advice())) adviceDiffers = true;
+            }
+        }
+        if (scoreDelta > 0) scoreChanged.increment();
+        scoreDeltaTotal.add(scoreDelta);
+        if (adviceDiffers) adviceChanged.increment();
+
+        boolean pu = s.primary().isUrgent(), cu = shadow.isUrgent();
+        if (pu && !cu) urgentPrimaryOnly.increment();
+        if (cu && !pu) urgentCandidateOnly.increment();
+        if (pu && cu && !Objects.equals(s.primary().getUrgentRuleId(), shadow.getUrgentRuleId())) urgentRuleDiffers.increment();
+        compared.increment();
+    }
+
+    private static List<String> names(SymptomEngine.EvaluationResult r) {
+        List<String> out = new ArrayList<>(r.getTopSuggestions().size());
+        for (SymptomEngine.ConditionSuggestion s : r.getTopSuggestions()) out.add(s.conditionName());
+        return out;
+    }
+
+    private record Sample(List<String> symptoms, int age, String sex, SymptomEngine.EvaluationResult primary) {}
+
+    /* ------------ Aggregated Statistics ------------- */
+
+    public record ShadowStats(long mirrored, long dropped, long compared, long failed,
+                              long top1Agreements, long topSetAgreements,
+                              long rankChangedCount, long rankShiftTotal,
+                              long scoreChangedCount, long scoreDeltaTotal, long adviceChangedCount,
+                              long urgentPrimaryOnly, long urgentCandidateOnly, long urgentRuleDiffers) {
+
+        public double top1AgreementRate() {
+            return compared == 0 ? 0 : (double) top1Agreements / compared;
+        }
+
+        public double topSetAgreementRate() {
+            return compared == 0 ? 0 : (double) topSetAgreements / compared;
+        }
+
+        public double meanRankShift() {
+            return compared == 0 ? 0 : (double) rankShiftTotal / compared;
+        }
+
+        /** Mean absolute score change summed over the conditions both engines suggested. */
+        public double meanScoreDelta() {
+            return compared == 0 ? 0 : (double) scoreDeltaTotal / compared;
+        }
+
+        public long urgentDisagreements() {
+            return urgentPrimaryOnly + urgentCandidateOnly;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("mirrored=%d dropped=%d compared=%d failed=%d top1=%.1f%% topSet=%.1f%% " +
+                            "rankChanged=%d meanShift=%.2f scoreChanged=%d meanScoreDelta=%.2f adviceChanged=%d urgent(primaryOnly=%d candidateOnly=%d ruleDiffers=%d)",
+                    mirrored, dropped, compared, failed, 100 * top1AgreementRate(), 100 * topSetAgreementRate(),
+                    rankChangedCount, meanRankShift(), scoreChangedCount, meanScoreDelta(), adviceChangedCount, urgentPrimaryOnly, urgentCandidateOnly, urgentRuleDiffers);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.healthinsight;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ShardedDatabaseManager
+ * - Routes users to one of N DatabaseManager shards by a consistent hash of the user name
+ * - Each shard keeps its own connection pool; history reads go only to the owning shard
+ * - Cross-shard analytics fan out to all shards in parallel and are merged here
+ * - addShard() + rebalance() move users onto new shards while the others keep serving
+ * - Rebalance progress (the pre-expansion shard count and id forwarding) is stored on the
+ *   first shard, so a restarted process resumes an interrupted rebalance instead of
+ *   duplicating users; every step of a move is safe to repeat
+ *
+ * User and assessment ids handed out by this class are "global" ids: the shard-local id
+ * times MAX_SHARDS plus the shard index, so a global id alone identifies its shard.
+ *
+ * For local testing, point several shards at separate schemas on one MySQL server
+ * (e.g. health_insight_0, health_insight_1, ...).
+ */
+public class ShardedDatabaseManager {
+
+    public static final int MAX_SHARDS = 1024;
+    private static final int VIRTUAL_NODES = 128;
+    private static final int LOCK_STRIPES = 64;
+    private static final String REBALANCE_FROM_SETTING = "rebalance_from_shards";
+
+    private final List<DatabaseManager> shards = new CopyOnWriteArrayList<>();
+    private final ReentrantLock[] userLocks = new ReentrantLock[LOCK_STRIPES];
+    private final Map<Long, Long> forwardedUserIds = new ConcurrentHashMap<>();
+    private final List<DatabaseManager.AssessmentListener> assessmentListeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService fanOut;
+
+    private volatile NavigableMap<Long, Integer> ring = new TreeMap<>();
+    // Ring before the last addShard(); consulted for users not yet moved by rebalance()
+    private volatile NavigableMap<Long, Integer> previousRing = null;
+
+    public ShardedDatabaseManager(List<DatabaseManager> initialShards) {
+        if (initialShards.isEmpty()) throw new IllegalArgumentException("At least one shard is required.");
+        if (initialShards.size() > MAX_SHARDS) throw new IllegalArgumentException("Too many shards (max " + MAX_SHARDS + ").");
+        for (int i = 0; i < LOCK_STRIPES; i++) userLocks[i] = new ReentrantLock();
+        shards.addAll(initialShards);
+        for (int i = 0; i < shards.size(); i++) forwardSaves(i);
+        ring = buildRing(shards);
+        fanOut = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "shard-fanout");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Initializes every shard, then restores routing state left by an earlier process:
+     * id forwarding from completed moves and, if a rebalance was interrupted, the previous ring.
+     */
+    public void initializeDatabase() {
+        for (DatabaseManager shard : shards) shard.initializeDatabase();
+        if (!isConnected()) return;
+        try {
+            for (DatabaseManager shard : shards) shard.ensureMoveTracking();
+            DatabaseManager meta = shards.get(0);
+            meta.ensureShardBookkeeping();
+            forwardedUserIds.putAll(meta.loadUserForwarding());
+            String from = meta.readShardSetting(REBALANCE_FROM_SETTING);
+            if (from != null) {
+                int n = Integer.parseInt(from);
+                if (n > 0 && n < shards.size()) previousRing = buildRing(shards.subList(0, n));
+            }
+        } catch (SQLException e) {
+            System.err.println("Could not prepare shard bookkeeping: " + e.getMessage());
+        }
+    }
+
+    /** True only when every shard is reachable; a partially connected cluster cannot route safely. */
+    public boolean isConnected() {
+        for (DatabaseManager shard : shards) {
+            if (!shard.isConnected()) return false;
+        }
+        return true;
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public List<DatabaseManager> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    public int shardFor(String userName) {
+        return ownerOf(ring, userName);
+    }
+
+    /* ---------- Same surface as DatabaseManager, but with global ids ---------- */
+
+    public long ensureUser(String name, int age, String sex) throws SQLException {
+        Long existing = findUserIdByName(name);
+        if (existing != null) return existing;
+
+        int shard = shardFor(name);
+        ReentrantLock lock = lockFor(shard, name);
+        lock.lock();
+        try {
+            Long raced = shards.get(shard).findUserIdByName(name);
+            if (raced != null) return globalId(raced, shard);
+            return globalId(shards.get(shard).ensureUser(name, age, sex), shard);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Long findUserIdByName(String name) throws SQLException {
+        int shard = shardFor(name);
+        Long local = shards.get(shard).findUserIdByName(name);
+        if (local != null) return globalId(local, shard);
+
+        NavigableMap<Long, Integer> previous = previousRing;
+        if (previous != null) {
+            int oldShard = ownerOf(previous, name);
+            if (oldShard != shard) {
+                Long old = shards.get(oldShard).findUserIdByName(name);
+                if (old != null) return resolve(globalId(old, oldShard));
+            }
+        }
+        return null;
+    }
+
+    public void saveAssessment(long userId,
+                               String symptomsCsv,
+                               String topConditions,
+                               String advice,
+                               boolean urgent,
+                               String notes) throws SQLException {
+        long id = resolve(userId);
+        int shard = shardOf(id);
+        ReentrantLock lock = lockFor(shard, localId(id));
+        lock.lock();
+        try {
+            // The user may have been moved while we waited for the lock
+            long current = resolve(id);
+            shards.get(shardOf(current)).saveAssessment(localId(current), symptomsCsv, topConditions, advice, urgent, notes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<DatabaseManager.AssessmentRecord> fetchRecentAssessments(long userId, int limit) throws SQLException {
+        long id = resolve(userId);
+        int shard = shardOf(id);
+        List<DatabaseManager.AssessmentRecord> local = shards.get(shard).fetchRecentAssessments(localId(id), limit);
+        List<DatabaseManager.AssessmentRecord> out = new ArrayList<>(local.size());
+        for (DatabaseManager.AssessmentRecord r : local) out.add(toGlobal(r, shard));
+        return out;
+    }
+
+    /** Registers a callback for saves on any shard; records carry global ids. */
+    public void addAssessmentListener(DatabaseManager.AssessmentListener listener) {
+        assessmentListeners.add(listener);
+    }
+
+    public void removeAssessmentListener(DatabaseManager.AssessmentListener listener) {
+        assessmentListeners.remove(listener);
+    }
+
+    /* ---------- Cross-shard analytics ---------- */
+
+    public DatabaseManager.AssessmentCounts countAssessmentsSince(LocalDateTime since) throws SQLException {
+        long total = 0, urgent = 0;
+        for (DatabaseManager.AssessmentCounts c : fanOut(shard -> shard.countAssessmentsSince(since))) {
+            total += c.total();
+            urgent += c.urgent();
+        }
+        return new DatabaseManager.AssessmentCounts(total, urgent);
+    }
+
+    /** Runs a query against every shard in parallel; results are in shard order. */
+    public <T> List<T> fanOut(ShardQuery<T> query) throws SQLException {
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (DatabaseManager shard : shards) {
+            futures.add(fanOut.submit(() -> query.run(shard)));
+        }
+        List<T> out = new ArrayList<>(futures.size());
+        for (Future<T> f : futures) {
+            try {
+                out.add(f.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted during cross-shard query.", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof SQLException se) throw se;
+                throw new SQLException("Cross-shard query failed: " + e.getCause(), e.getCause());
+            }
+        }
+        return out;
+    }
+
+    @FunctionalInterface
+    public interface ShardQuery<T> {
+        T run(DatabaseManager shard) throws SQLException;
+    }
+
+    /* ---------- Online rebalancing ---------- */
+
+    /**
+     * Adds a shard to the ring. New users route to it immediately; existing users on other
+     * shards stay readable through the previous ring until rebalance() has moved them.
+     * A shard that cannot be initialized is rejected and routing is left unchanged.
+     */
+    public synchronized int addShard(DatabaseManager shard) throws SQLException {
+        if (previousRing != null) throw new IllegalStateException("Rebalance still in progress.");
+        if (shards.size() >= MAX_SHARDS) throw new IllegalStateException("Too many shards (max " + MAX_SHARDS + ").");
+        shard.initializeDatabase();
+        if (!shard.isConnected()) throw new SQLException("Shard " + shard.describe() + " is not reachable; not added.");
+        shard.ensureMoveTracking();
+
+        List<DatabaseManager> next = new ArrayList<>(shards);
+        next.add(shard);
+        NavigableMap<Long, Integer> nextRing = buildRing(next);
+        // Record the old layout first so a crash before rebalance() finishes can resume
+        shards.get(0).writeShardSetting(REBALANCE_FROM_SETTING, Integer.toString(shards.size()));
+        previousRing = ring;
+        shards.add(shard);
+        forwardSaves(shards.size() - 1);
+        ring = nextRing;
+        return shards.size() - 1;
+    }
+
+    /**
+     * Moves every user whose owner changed under the current ring, one user at a time,
+     * under that user's lock so concurrent saves are never lost. Each move is import
+     * (idempotent), persist forwarding, then delete; if the process dies part-way, calling
+     * rebalance() again after restart finishes the job without duplicating anyone.
+     * Returns users moved.
+     */
+    public synchronized int rebalance() throws SQLException {
+        DatabaseManager meta = shards.get(0);
+        int moved = 0;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            DatabaseManager source = shards.get(shard);
+            for (DatabaseManager.UserRecord user : source.listUsers()) {
+                int owner = shardFor(user.name());
+                if (owner == shard) continue;
+                ReentrantLock lock = lockFor(shard, user.id());
+                lock.lock();
+                try {
+                    List<DatabaseManager.AssessmentRecord> history = new ArrayList<>();
+                    for (DatabaseManager.AssessmentRecord r : source.fetchRecentAssessments(user.id(), Integer.MAX_VALUE)) {
+                        history.add(toGlobal(r, shard)); // global ids identify each source row for importUser
+                    }
+                    Collections.reverse(history); // re-insert oldest first so ids keep their order
+                    long newLocal = shards.get(owner).importUser(user, history);
+                    long oldGlobal = globalId(user.id(), shard), newGlobal = globalId(newLocal, owner);
+                    meta.saveUserForwarding(oldGlobal, newGlobal);
+                    forwardedUserIds.put(oldGlobal, newGlobal);
+                    source.deleteUser(user.id());
+                    moved++;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        meta.writeShardSetting(REBALANCE_FROM_SETTING, null);
+        previousRing = null;
+        return moved;
+    }
+
+    public void close() {
+        fanOut.shutdownNow();
+        for (DatabaseManager shard : shards) shard.close();
+    }
+
+    /* ---------- Routing helpers ---------- */
+
+    public static long globalId(long localId, int shard) {
+        return localId * MAX_SHARDS + shard;
+    }
+
+    public static int shardOf(long globalId) {
+        return (int) (globalId % MAX_SHARDS);
+    }
+
+    public static long localId(long globalId) {
+        return globalId / MAX_SHARDS;
+    }
+
+    private long resolve(long globalUserId) {
+        long id = globalUserId;
+        Long next;
+        while ((next = forwardedUserIds.get(id)) != null) id = next;
+        return id;
+    }
+
+    private void forwardSaves(int shard) {
+        shards.get(shard).addAssessmentListener(r -> {
+            if (assessmentListeners.isEmpty()) return;
+            DatabaseManager.AssessmentRecord global = toGlobal(r, shard);
+            for (DatabaseManager.AssessmentListener l : assessmentListeners) l.onAssessmentSaved(global);
+        });
+    }
+
+    static DatabaseManager.AssessmentRecord toGlobal(DatabaseManager.AssessmentRecord r, int shard) {
+        return new DatabaseManager.AssessmentRecord(
+                globalId(r.id(), shard),
+                globalId(r.userId(), shard),
+                r.symptoms(),
+                r.topConditions(),
+                r.advice(),
+                r.urgent(),
+                r.notes(),
+                r.createdAt());
+    }
+
+    private ReentrantLock lockFor(int shard, Object key) {
+        int h = 31 * shard + key.hashCode();
+        return userLocks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    private static int ownerOf(NavigableMap<Long, Integer> ring, String userName) {
+        Map.Entry<Long, Integer> e = ring.ceilingEntry(hash(userName));
+        return (e != null ? e : ring.firstEntry()).getValue();
+    }
+
+    private static NavigableMap<Long, Integer> buildRing(List<DatabaseManager> shards) {
+        NavigableMap<Long, Integer> r = new TreeMap<>();
+        for (int i = 0; i < shards.size(); i++) {
+            String id = shards.get(i).describe();
+            for (int v = 0; v < VIRTUAL_NODES; v++) r.put(hash(id + "#" + v), i);
+        }
+        return r;
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] d = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) h = (h << 8) | (d[i] & 0xff);
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.healthinsight;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * SurveillanceMonitor
+ * - Live counts of symptoms, top conditions and urgent flags over the last 5 minutes,
+ *   hour and day, fed by SymptomEngine.evaluate and DatabaseManager.saveAssessment
+ * - Each window is a ring of time buckets; counters are striped across threads and
+ *   updated lock-free, so recording never blocks the evaluation path
+ * - Queries read a fixed number of buckets, independent of traffic volume
+ * - Memory is fixed at construction: windows x stripes x series x buckets longs
+ *
+ * A recycled bucket is zeroed before its new epoch is published, so queries never count the
+ * previous bucket under the new one. An increment whose clock reading predates the current
+ * bucket lands in it anyway; the monitor is meant for trend and outbreak spotting, not
+ * exact accounting.
+ */
+public class SurveillanceMonitor implements SymptomEngine.EvaluationListener, DatabaseManager.AssessmentListener {
+
+    public enum Window {
+        FIVE_MINUTES(10_000, 30),
+        HOUR(60_000, 60),
+        DAY(30 * 60_000, 48);
+
+        final long bucketMillis;
+        final int buckets;
+
+        Window(long bucketMillis, int buckets) {
+            this.bucketMillis = bucketMillis;
+            this.buckets = buckets;
+        }
+
+        public double minutes() {
+            return bucketMillis * buckets / 60_000.0;
+        }
+    }
+
+    public enum Event { EVALUATIONS, URGENT, SAVES, SAVED_URGENT }
+
+    private final List<String> symptoms;
+    private final List<String> conditions;
+    private final Map<String, Integer> symptomSeries = new HashMap<>();
+    private final Map<String, Integer> conditionSeries = new HashMap<>();
+    private final int eventBase;
+    private final int seriesCount;
+    private final int stripeMask;
+    private final LongSupplier clock;
+    private final Ring[] rings = new Ring[Window.values().length];
+
+    public SurveillanceMonitor(SymptomEngine engine) {
+        this(engine.getAvailableSymptoms(), engine.getConditionNames(),
+                Runtime.getRuntime().availableProcessors(), System::currentTimeMillis);
+    }
+
+    public SurveillanceMonitor(List<String> symptoms, List<String> conditions, int stripes, LongSupplier clock) {
+        this.symptoms = List.copyOf(symptoms);
+        this.conditions = List.copyOf(conditions);
+        for (String s : this.symptoms) symptomSeries.putIfAbsent(s, symptomSeries.size());
+        for (String c : this.conditions) conditionSeries.putIfAbsent(c, symptomSeries.size() + conditionSeries.size());
+        this.eventBase = symptomSeries.size() + conditionSeries.size();
+        this.seriesCount = eventBase + Event.values().length;
+        int pow2 = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripeMask = pow2 - 1;
+        this.clock = clock;
+        for (Window w : Window.values()) rings[w.ordinal()] = new Ring(w, stripeMask + 1, seriesCount);
+    }
+
+    /* ---------- Feeds ---------- */
+
+    @Override
+    public void onEvaluation(List<String> selectedSymptoms, int age, String sex, SymptomEngine.EvaluationResult result) {
+        long now = clock.getAsLong();
+        int stripe = stripe();
+        for (String s : selectedSymptoms) {
+            Integer series = symptomSeries.get(s);
+            if (series != null) record(series, stripe, now);
+        }
+        List<SymptomEngine.ConditionSuggestion> top = result.getTopSuggestions();
+        if (!top.isEmpty()) {
+            Integer series = conditionSeries.get(top.get(0).conditionName());
+            if (series != null) record(series, stripe, now);
+        }
+        record(eventBase + Event.EVALUATIONS.ordinal(), stripe, now);
+        if (result.isUrgent()) record(eventBase + Event.URGENT.ordinal(), stripe, now);
+    }
+
+    @Override
+    public void onAssessmentSaved(DatabaseManager.AssessmentRecord record) {
+        long now = clock.getAsLong();
+        int stripe = stripe();
+        record(eventBase + Event.SAVES.ordinal(), stripe, now);
+        if (record.urgent()) record(eventBase + Event.SAVED_URGENT.ordinal(), stripe, now);
+    }
+
+    /* ---------- Queries ---------- */
+
+    public long symptomCount(String symptom, Window window) {
+        Integer series = symptomSeries.get(symptom);
+        return series == null ? 0 : count(series, window);
+    }
+
+    public long conditionCount(String condition, Window window) {
+        Integer series = conditionSeries.get(condition);
+        return series == null ? 0 : count(series, window);
+    }
+
+    public long eventCount(Event event, Window window) {
+        return count(eventBase + event.ordinal(), window);
+    }
+
+    /** Events per minute over the window. */
+    public double ratePerMinute(long count, Window window) {
+        return count / window.minutes();
+    }
+
+    /**
+     * Series whose 5-minute rate is at least factor times their hourly rate, with at least
+     * minCount events in the last 5 minutes. Strongest spikes first.
+     */
+    public List<SpikeAlert> detectSpikes(double factor, long minCount) {
+        long now = clock.getAsLong();
+        Ring shortRing = rings[Window.FIVE_MINUTES.ordinal()];
+        Ring longRing = rings[Window.HOUR.ordinal()];
+        List<SpikeAlert> alerts = new ArrayList<>();
+        for (int series = 0; series < seriesCount; series++) {
+            long recent = shortRing.sum(series, now);
+            if (recent < minCount) continue;
+            double recentRate = recent / Window.FIVE_MINUTES.minutes();
+            double baselineRate = longRing.sum(series, now) / Window.HOUR.minutes();
+            if (recentRate >= factor * baselineRate) {
+                alerts.add(new SpikeAlert(seriesName(series), recent, recentRate, baselineRate));
+            }
+        }
+        alerts.sort(Comparator.comparingDouble((SpikeAlert a) -> a.recentPerMinute() / Math.max(a.baselinePerMinute(), 1e-9)).reversed());
+        return alerts;
+    }
+
+    public record SpikeAlert(String series, long recentCount, double recentPerMinute, double baselinePerMinute) {}
+
+    private long count(int series, Window window) {
+        return rings[window.ordinal()].sum(series, clock.getAsLong());
+    }
+
+    private String seriesName(int series) {
+        if (series < symptomSeries.size()) return "symptom:" + symptoms.get(series);
+        if (series < eventBase) return "condition:" + conditions.get(series - symptomSeries.size());
+        return "event:" + Event.values()[series - eventBase].name();
+    }
+
+    private void record(int series, int stripe, long now) {
+        for (Ring r : rings) r.increment(series, stripe, now);
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & stripeMask;
+    }
+
+    /* ---------- Time-bucketed ring ---------- */
+
+    private static final class Ring {
+        // slotEpoch value while a slot is being zeroed for its next bucket
+        private static final long ROTATING = -2;
+
+        private final long bucketMillis;
+        private final int buckets;
+        private final int stripes;
+        private final int seriesCount;
+        // [stripe][series * buckets + slot], flattened
+        private final AtomicLongArray[] counts;
+        // Which bucket epoch each slot currently holds
+        private final AtomicLongArray slotEpoch;
+
+        Ring(Window w, int stripes, int seriesCount) {
+            this.bucketMillis = w.bucketMillis;
+            this.buckets = w.buckets;
+            this.stripes = stripes;
+            this.seriesCount = seriesCount;
+            this.counts = new AtomicLongArray[stripes];
+            for (int s = 0; s < stripes; s++) counts[s] = new AtomicLongArray(seriesCount * buckets);
+            this.slotEpoch = new AtomicLongArray(buckets);
+            for (int i = 0; i < buckets; i++) slotEpoch.set(i, -1);
+        }
+
+        void increment(int series, int stripe, long now) {
+            long epoch = now / bucketMillis;
+            int slot = (int) (epoch % buckets);
+            long held;
+            while ((held = slotEpoch.get(slot)) != epoch) {
+                if (held == ROTATING) {
+                    Thread.onSpinWait(); // being zeroed by another thread; count into the new bucket
+                    continue;
+                }
+                if (held > epoch) break; // clock went backwards; keep counting into the newer bucket
+                rotate(slot, held, epoch);
+            }
+            counts[stripe].incrementAndGet(series * buckets + slot);
+        }
+
+        long sum(int series, long now) {
+            long epoch = now / bucketMillis;
+            long total = 0;
+            int base = series * buckets;
+            for (int slot = 0; slot < buckets; slot++) {
+                long e = slotEpoch.get(slot);
+                if (e < 0 || e > epoch || epoch - e >= buckets) continue; // empty, rotating or stale slot
+                for (int s = 0; s < stripes; s++) total += counts[s].get(base + slot);
+            }
+            return total;
+        }
+
+        private void rotate(int slot, long held, long epoch) {
+            // Park the slot while zeroing it; sum() skips it until the new epoch is published
+            if (!slotEpoch.compareAndSet(slot, held, ROTATING)) return; // another thread is recycling it
+            for (int s = 0; s < stripes; s++) {
+                AtomicLongArray c = counts[s];
+                for (int series = 0; series < seriesCount; series++) c.set(series * buckets + slot, 0);
+            }
+            slotEpoch.set(slot, epoch);
+        }
+    }
+}
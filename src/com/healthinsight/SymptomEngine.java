@@ -1,62 +1,156 @@
 package com.healthinsight;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * SymptomEngine
  * - Uses HashMap-based mapping from symptom -> (condition -> weight)
+ * - Compiles the mapping into per age-band/sex weight rows (see DemographicModifiers)
  * - Aggregates scores across user-selected symptoms
  * - Returns top condition suggestions with simple, general care tips
+ * - Urgent flags come from compiled red-flag rules (see UrgentRuleEngine)
+ * - The built-in knowledge base can be exported, edited and loaded into a separate engine
+ *   (fromKnowledgeBase), e.g. as a ShadowEvaluator candidate
  *
  * Note: Informational only; not diagnostic.
  */
 public class SymptomEngine {
 
+    static final int SEX_FEMALE = 0;
+    static final int SEX_MALE = 1;
+    static final int SEX_OTHER = 2;
+    static final int SEX_BUCKETS = 3;
+    // Compiled weights and offsets are fixed-point, so a multiplier like 1.2 changes even a
+    // weight of 1; reported scores are rounded back to whole points.
+    static final int SCORE_SCALE = 100;
+
+    // Declaration order is priority order: the most specific rules come first so the
+    // reported rule id explains the flag as precisely as possible.
+    private static final String DEFAULT_URGENT_RULES = """
+            chest-pain-with-breathlessness | requires: Chest Pain/Pressure, Shortness of Breath
+            child-high-fever               | requires: High Fever (>=39.5°C) | age: 0-5
+            chest-pain                     | requires: Chest Pain/Pressure
+            shortness-of-breath            | requires: Shortness of Breath
+            high-fever                     | requires: High Fever (>=39.5°C)
+            """;
+
+    // Age/sex adjustments; see DemographicModifiers for the format and age bands.
+    private static final String DEFAULT_DEMOGRAPHIC_MODIFIERS = """
+            Pneumonia (Lung Infection)   | age: 65- | add: 1
+            Influenza (Flu)              | age: 65- | add: 1
+            COVID-19                     | age: 65- | add: 1
+            """;
+
     private final Map<String, Map<String, Integer>> symptomConditionWeights = new HashMap<>();
     private final Map<String, String> conditionAdvice = new HashMap<>();
-    private final Set<String> urgentSymptoms = new HashSet<>();
     private final List<String> availableSymptoms = new ArrayList<>();
+    private final Map<String, Integer> symptomIds = new HashMap<>();
+    private final List<String> conditionNames = new ArrayList<>();
+    private volatile UrgentRuleEngine urgentRules;
+    private volatile ScoringTables tables;
+    private final List<EvaluationListener> evaluationListeners = new CopyOnWriteArrayList<>();
 
     public SymptomEngine() {
         loadDefaultMappings();
+        compileDefaults();
     }
 
-    public List<String> getAvailableSymptoms() {
-        return new ArrayList<>(availableSymptoms);
+    private SymptomEngine(String knowledgeBase) {
+        parseKnowledgeBase(knowledgeBase);
+        compileDefaults();
     }
 
-    public EvaluationResult evaluate(List<String> selectedSymptoms, int age, String sex) {
-        Map<String, Integer> scores = new HashMap<>();
-        boolean urgentFlag = false;
+    /**
+     * Builds an engine from a knowledge-base file instead of the built-in mappings; the
+     * default urgent rules and demographic modifiers are compiled against it, so it must
+     * still declare the symptoms and conditions they name (or load replacements afterwards).
+     *
+     * File format, one entry per line ('#' starts a comment):
+     *   symptom | Fever                              (symptoms, in display order)
+     *   weight  | Fever | Common Cold | 1            (declare symptoms before using them)
+     *   advice  | Common Cold | Rest, stay hydrated...
+     * Conditions rank ties in order of their first weight line. exportKnowledgeBase()
+     * writes an engine's current knowledge base in this format.
+     */
+    public static SymptomEngine fromKnowledgeBase(Path file) throws IOException {
+        return new SymptomEngine(Files.readString(file, StandardCharsets.UTF_8));
+    }
 
-        for (String symptom : selectedSymptoms) {
-            if (urgentSymptoms.contains(symptom)) urgentFlag = true;
-            Map<String, Integer> weights = symptomConditionWeights.get(symptom);
-            if (weights == null) continue;
-            for (Map.Entry<String, Integer> e : weights.entrySet()) {
-                scores.merge(e.getKey(), e.getValue(), Integer::sum);
+    /** The symptoms, weights and advice in fromKnowledgeBase format; loading it reproduces this engine's scores. */
+    public String exportKnowledgeBase() {
+        StringBuilder out = new StringBuilder();
+        for (String symptom : availableSymptoms) out.append("symptom | ").append(symptom).append('\n');
+        for (String condition : conditionNames) {
+            out.append('\n');
+            for (String symptom : availableSymptoms) {
+                Integer w = symptomConditionWeights.getOrDefault(symptom, Map.of()).get(condition);
+                if (w != null) out.append("weight | ").append(symptom).append(" | ").append(condition).append(" | ").append(w).append('\n');
             }
+            String tip = conditionAdvice.get(condition);
+            if (tip != null) out.append("advice | ").append(condition).append(" | ").append(tip).append('\n');
         }
+        return out.toString();
+    }
 
-        // Mild risk heuristics
-        if (age >= 65) {
-            // slightly bump respiratory conditions in older adults
-            bump(scores, "Pneumonia", 1);
-            bump(scores, "Influenza (Flu)", 1);
-            bump(scores, "COVID-19", 1);
-        }
+    private void compileDefaults() {
+        for (String symptom : availableSymptoms) symptomIds.putIfAbsent(symptom, symptomIds.size());
+        urgentRules = UrgentRuleEngine.compile(DEFAULT_URGENT_RULES, availableSymptoms);
+        tables = compileTables(DemographicModifiers.compile(DEFAULT_DEMOGRAPHIC_MODIFIERS, conditionNames));
+    }
 
-        // Sort by score desc
-        List<Map.Entry<String, Integer>> sorted = scores.entrySet().stream()
-                .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
-                .collect(Collectors.toList());
+    /**
+     * Replaces the demographic modifiers with those in the given file (DemographicModifiers format)
+     * and recompiles the per-bucket weights. A file naming unknown conditions is rejected.
+     */
+    public void loadDemographicModifiers(Path file) throws IOException {
+        tables = compileTables(DemographicModifiers.compile(Files.readString(file, StandardCharsets.UTF_8), conditionNames));
+    }
+
+    /**
+     * Replaces the urgent rules with those in the given file (UrgentRuleEngine format).
+     * The file is fully compiled before the swap, so a bad file leaves the old rules active.
+     */
+    public void loadUrgentRules(Path file) throws IOException {
+        urgentRules = UrgentRuleEngine.compile(Files.readString(file, StandardCharsets.UTF_8), availableSymptoms);
+    }
+
+    public UrgentRuleEngine getUrgentRules() {
+        return urgentRules;
+    }
+
+    public List<String> getAvailableSymptoms() {
+        return new ArrayList<>(availableSymptoms);
+    }
+
+    public List<String> getConditionNames() {
+        return new ArrayList<>(conditionNames);
+    }
+
+    /** Registers a callback run synchronously after every evaluate(); keep it cheap. */
+    public void addEvaluationListener(EvaluationListener listener) {
+        evaluationListeners.add(listener);
+    }
+
+    public void removeEvaluationListener(EvaluationListener listener) {
+        evaluationListeners.remove(listener);
+    }
+
+    public EvaluationResult evaluate(List<String> selectedSymptoms, int age, String sex) {
+        ScoringTables t = tables;
+        int bucket = t.modifiers().bucketOf(age, sex);
+        int[] scores = new int[conditionNames.size()];
+        int[] touched = new int[conditionNames.size()];
+        int touchedCount = score(t, bucket, selectedSymptoms, scores, touched);
 
         List<ConditionSuggestion> top = new ArrayList<>();
-        for (int i = 0; i < Math.min(sorted.size(), 3); i++) {
-            String cond = sorted.get(i).getKey();
-            int score = sorted.get(i).getValue();
-            top.add(new ConditionSuggestion(cond, score, conditionAdvice.getOrDefault(cond, "Monitor your symptoms and seek medical advice if needed.")));
+        for (int cond : topConditions(scores, touched, touchedCount, 3)) {
+            String name = conditionNames.get(cond);
+            top.add(new ConditionSuggestion(name, points(scores[cond]), conditionAdvice.getOrDefault(name, "Monitor your symptoms and seek medical advice if needed.")));
         }
 
         // If nothing matched, provide generic output
@@ -64,17 +158,228 @@ public class SymptomEngine {
             top.add(new ConditionSuggestion("No clear match", 0, "Consider rest, fluids, and monitoring. Seek professional advice if symptoms persist or worsen."));
         }
 
-        // Extra urgent hint if specific combinations occur
-        if (!urgentFlag) {
-            if (selectedSymptoms.contains("Chest Pain/Pressure") && selectedSymptoms.contains("Shortness of Breath")) urgentFlag = true;
-            if (selectedSymptoms.contains("High Fever (>=39.5°C)") && age <= 5) urgentFlag = true; // children high fever
+        // Red-flag rules: single symptoms and combinations, with age/sex conditions
+        UrgentRuleEngine.UrgentRule fired = urgentRules.match(selectedSymptoms, age, sexBucket(sex));
+
+        EvaluationResult result = new EvaluationResult(top, fired != null, fired == null ? null : fired.id());
+        if (!evaluationListeners.isEmpty()) {
+            for (EvaluationListener l : evaluationListeners) {
+                try {
+                    l.onEvaluation(selectedSymptoms, age, sex, result);
+                } catch (RuntimeException e) {
+                    System.err.println("Evaluation listener failed: " + e.getMessage());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Ranks every unselected symptom by how well asking about it would separate the current
+     * top-k conditions, in one pass over the weight rows. A candidate's separation is the
+     * spread (max - min) of the score changes it would cause among the top-k; candidates
+     * that would change the leader (a top-k condition or an outsider overtaking it) or push an
+     * outsider into the top-k rank higher on ties.
+     * Returns at most limit suggestions; empty when fewer than two conditions score.
+     * Throws IllegalArgumentException when limit is negative.
+     */
+    public List<QuestionSuggestion> recommendQuestions(List<String> selectedSymptoms, int age, String sex, int k, int limit) {
+        if (limit < 0) throw new IllegalArgumentException("limit must not be negative");
+        ScoringTables t = tables;
+        int bucket = t.modifiers().bucketOf(age, sex);
+        int conditionCount = conditionNames.size();
+        int[] scores = new int[conditionCount];
+        int[] touched = new int[conditionCount];
+        int touchedCount = score(t, bucket, selectedSymptoms, scores, touched);
+        int topK = Math.max(2, k);
+        int[] top = topConditions(scores, touched, touchedCount, topK);
+        if (top.length < 2) return new ArrayList<>();
+
+        int[] rankOf = new int[conditionCount];
+        Arrays.fill(rankOf, -1);
+        for (int r = 0; r < top.length; r++) rankOf[top[r]] = r;
+        boolean[] isTouched = new boolean[conditionCount];
+        for (int i = 0; i < touchedCount; i++) isTouched[touched[i]] = true;
+        boolean[] selected = new boolean[t.rowConditions.length];
+        for (String symptom : selectedSymptoms) {
+            Integer id = symptomIds.get(symptom);
+            if (id != null) selected[id] = true;
+        }
+
+        int[] offsets = t.offsets[bucket];
+        int[][] weights = t.rowWeights[bucket];
+        int leader = top[0];
+        // With free slots in the top-k, any condition that scores at all gets in
+        int kthScore = top.length < topK ? 0 : scores[top[top.length - 1]];
+        int[] delta = new int[top.length];
+        List<QuestionSuggestion> out = new ArrayList<>();
+
+        for (Map.Entry<String, Integer> candidate : symptomIds.entrySet()) {
+            int sym = candidate.getValue();
+            if (selected[sym]) continue;
+            int[] conds = t.rowConditions[sym];
+            if (conds.length == 0) continue;
+            int[] w = weights[sym];
+
+            Arrays.fill(delta, 0);
+            boolean promotesOutsider = false;
+            int bestOutsider = Integer.MIN_VALUE;
+            for (int i = 0; i < conds.length; i++) {
+                int c = conds[i];
+                int r = rankOf[c];
+                if (r >= 0) {
+                    delta[r] += w[i];
+                    continue;
+                }
+                int outsider = scores[c] + w[i] + (isTouched[c] ? 0 : offsets[c]);
+                if (outsider > kthScore) promotesOutsider = true;
+                if (outsider > bestOutsider) bestOutsider = outsider;
+            }
+
+            int min = delta[0], max = delta[0], favored = 0, newLeader = 0;
+            for (int r = 1; r < delta.length; r++) {
+                if (delta[r] < min) min = delta[r];
+                if (delta[r] > max) {
+                    max = delta[r];
+                    favored = r;
+                }
+                int nr = scores[top[r]] + delta[r], nl = scores[top[newLeader]] + delta[newLeader];
+                if (nr > nl) newLeader = r;
+            }
+            int separation = max - min;
+            if (separation == 0 && !promotesOutsider) continue;
+
+            out.add(new QuestionSuggestion(candidate.getKey(), (double) separation / SCORE_SCALE,
+                    separation > 0 ? conditionNames.get(top[favored]) : null,
+                    top[newLeader] != leader || bestOutsider > scores[top[newLeader]] + delta[newLeader],
+                    promotesOutsider));
+        }
+
+        out.sort(Comparator.comparingDouble(QuestionSuggestion::separation).reversed()
+                .thenComparing(QuestionSuggestion::changesLeader, Comparator.reverseOrder())
+                .thenComparing(QuestionSuggestion::promotesOutsider, Comparator.reverseOrder())
+                .thenComparing(QuestionSuggestion::symptom));
+        return out.size() > limit ? new ArrayList<>(out.subList(0, limit)) : out;
+    }
+
+    /** Scores the selected symptoms for one demographic bucket; see accumulate for touched. */
+    private int score(ScoringTables t, int bucket, List<String> selectedSymptoms, int[] scores, int[] touched) {
+        int touchedCount = accumulate(t, bucket, selectedSymptoms, scores, touched);
+
+        // Demographic offsets only adjust conditions the symptoms already point at
+        int[] offsets = t.offsets[bucket];
+        for (int i = 0; i < touchedCount; i++) scores[touched[i]] += offsets[touched[i]];
+        return touchedCount;
+    }
+
+    /**
+     * Adds the bucket's precompiled weights of each selected symptom into scores.
+     * Fills touched with the ids of conditions that received any weight; returns how many.
+     */
+    private int accumulate(ScoringTables t, int bucket, List<String> selectedSymptoms, int[] scores, int[] touched) {
+        int[][] weights = t.rowWeights[bucket];
+        boolean[] seen = new boolean[scores.length];
+        int n = 0;
+        for (String symptom : selectedSymptoms) {
+            Integer id = symptomIds.get(symptom);
+            if (id == null) continue;
+            int[] conds = t.rowConditions[id];
+            int[] w = weights[id];
+            for (int k = 0; k < conds.length; k++) {
+                int c = conds[k];
+                scores[c] += w[k];
+                if (!seen[c]) {
+                    seen[c] = true;
+                    touched[n++] = c;
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Up to k positive-scoring condition ids, best first; ties go to the earlier-declared condition. */
+    private static int[] topConditions(int[] scores, int[] candidates, int count, int k) {
+        int[] best = new int[k];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int c = candidates[i];
+            if (scores[c] <= 0) continue;
+            int pos = size;
+            while (pos > 0 && ranksBefore(scores, c, best[pos - 1])) pos--;
+            if (pos >= k) continue;
+            int last = Math.min(size, k - 1);
+            System.arraycopy(best, pos, best, pos + 1, last - pos);
+            best[pos] = c;
+            if (size < k) size++;
         }
+        return Arrays.copyOf(best, size);
+    }
+
+    private static boolean ranksBefore(int[] scores, int a, int b) {
+        return scores[a] > scores[b] || (scores[a] == scores[b] && a < b);
+    }
+
+    /**
+     * Strict form of sexBucket for rule and modifier files: only Female, Male or Other
+     * (case-insensitive) are accepted, so a typo cannot silently fall into the Other bucket.
+     * Returns -1 for anything else.
+     */
+    static int parseSexValue(String value) {
+        if (value.equalsIgnoreCase("Female")) return SEX_FEMALE;
+        if (value.equalsIgnoreCase("Male")) return SEX_MALE;
+        if (value.equalsIgnoreCase("Other")) return SEX_OTHER;
+        return -1;
+    }
 
-        return new EvaluationResult(top, urgentFlag);
+    static int sexBucket(String sex) {
+        if (sex == null) return SEX_OTHER;
+        if (sex.equalsIgnoreCase("Female")) return SEX_FEMALE;
+        if (sex.equalsIgnoreCase("Male")) return SEX_MALE;
+        return SEX_OTHER;
     }
 
-    private void bump(Map<String, Integer> scores, String condition, int by) {
-        scores.merge(condition, by, Integer::sum);
+    /** Fixed-point internal score to the whole points reported in ConditionSuggestion. */
+    private static int points(int scaled) {
+        return (int) Math.round((double) scaled / SCORE_SCALE);
+    }
+
+    /**
+     * Compiles the symptom -> condition weights into per-bucket rows with multipliers folded in,
+     * scaled by SCORE_SCALE along with the offsets.
+     */
+    private ScoringTables compileTables(DemographicModifiers modifiers) {
+        Map<String, Integer> conditionIds = new HashMap<>();
+        for (String c : conditionNames) conditionIds.put(c, conditionIds.size());
+
+        int symptomCount = symptomIds.size();
+        int[][] rowConditions = new int[symptomCount][];
+        int[][][] rowWeights = new int[modifiers.buckets()][symptomCount][];
+        for (Map.Entry<String, Integer> s : symptomIds.entrySet()) {
+            int sym = s.getValue();
+            Map<String, Integer> weights = symptomConditionWeights.getOrDefault(s.getKey(), Map.of());
+            int[] conds = new int[weights.size()];
+            int[] base = new int[weights.size()];
+            int k = 0;
+            for (Map.Entry<String, Integer> e : weights.entrySet()) {
+                conds[k] = conditionIds.get(e.getKey());
+                base[k++] = e.getValue();
+            }
+            rowConditions[sym] = conds;
+            for (int b = 0; b < modifiers.buckets(); b++) {
+                int[] w = new int[conds.length];
+                for (int i = 0; i < conds.length; i++) {
+                    w[i] = (int) Math.round(base[i] * SCORE_SCALE * modifiers.multiplier(b, conds[i]));
+                }
+                rowWeights[b][sym] = w;
+            }
+        }
+        int[][] offsets = new int[modifiers.buckets()][];
+        for (int b = 0; b < modifiers.buckets(); b++) {
+            int[] add = modifiers.offsets(b);
+            offsets[b] = new int[add.length];
+            for (int c = 0; c < add.length; c++) offsets[b][c] = add[c] * SCORE_SCALE;
+        }
+        return new ScoringTables(modifiers, rowConditions, rowWeights, offsets);
     }
 
     private void loadDefaultMappings() {
@@ -109,13 +414,6 @@ public class SymptomEngine {
                 "Urinary Frequency/Urgency"
         );
 
-        // Urgent symptom triggers (simplified)
-        Collections.addAll(urgentSymptoms,
-                "Chest Pain/Pressure",
-                "Shortness of Breath",
-                "High Fever (>=39.5°C)"
-        );
-
         // Helper: add weights
         weight("Sneezing", "Common Cold", 3);
         weight("Runny Nose", "Common Cold", 3);
@@ -233,7 +531,48 @@ public class SymptomEngine {
 
     }
 
+    private void parseKnowledgeBase(String text) {
+        int lineNo = 0;
+        for (String raw : text.split("\\R")) {
+            lineNo++;
+            int hash = raw.indexOf('#');
+            String line = (hash >= 0 ? raw.substring(0, hash) : raw).trim();
+            if (line.isEmpty()) continue;
+            String[] fields = line.split("\\|", 4);
+            for (int i = 0; i < fields.length; i++) fields[i] = fields[i].trim();
+            switch (fields[0].toLowerCase(Locale.ROOT)) {
+                case "symptom" -> {
+                    if (fields.length != 2 || fields[1].isEmpty()) throw new IllegalArgumentException("Line " + lineNo + ": expected 'symptom | name'");
+                    if (availableSymptoms.contains(fields[1])) throw new IllegalArgumentException("Line " + lineNo + ": duplicate symptom '" + fields[1] + "'");
+                    availableSymptoms.add(fields[1]);
+                    symptomIds.put(fields[1], symptomIds.size());
+                }
+                case "weight" -> {
+                    if (fields.length != 4) throw new IllegalArgumentException("Line " + lineNo + ": expected 'weight | symptom | condition | n'");
+                    if (!symptomIds.containsKey(fields[1])) throw new IllegalArgumentException("Line " + lineNo + ": unknown symptom '" + fields[1] + "'");
+                    if (fields[2].isEmpty()) throw new IllegalArgumentException("Line " + lineNo + ": missing condition");
+                    try {
+                        weight(fields[1], fields[2], Integer.parseInt(fields[3]));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Line " + lineNo + ": bad weight '" + fields[3] + "'");
+                    }
+                }
+                case "advice" -> {
+                    if (fields.length < 3) throw new IllegalArgumentException("Line " + lineNo + ": expected 'advice | condition | text'");
+                    if (!conditionNames.contains(fields[1])) throw new IllegalArgumentException("Line " + lineNo + ": advice for unknown condition '" + fields[1] + "'");
+                    // Advice text may itself contain '|'
+                    String tip = line.substring(line.indexOf('|', line.indexOf('|') + 1) + 1).trim();
+                    advice(fields[1], tip);
+                }
+                default -> throw new IllegalArgumentException("Line " + lineNo + ": unknown entry '" + fields[0] + "'");
+            }
+        }
+        if (availableSymptoms.isEmpty()) throw new IllegalArgumentException("Knowledge base declares no symptoms");
+    }
+
     private void weight(String symptom, String condition, int w) {
+        if (!conditionNames.contains(condition)) conditionNames.add(condition);
+        symptomIds.putIfAbsent(symptom, symptomIds.size());
         symptomConditionWeights.computeIfAbsent(symptom, k -> new HashMap<>())
                 .merge(condition, w, Integer::sum);
     }
@@ -242,17 +581,39 @@ public class SymptomEngine {
         conditionAdvice.put(condition, tip);
     }
 
+    /** Immutable compiled scoring state; replaced as a whole when modifiers are reloaded. */
+    private record ScoringTables(DemographicModifiers modifiers, int[][] rowConditions, int[][][] rowWeights, int[][] offsets) {}
+
+    @FunctionalInterface
+    public interface EvaluationListener {
+        void onEvaluation(List<String> selectedSymptoms, int age, String sex, EvaluationResult result);
+    }
+
     /* ------------ Result Models ------------- */
 
     public record ConditionSuggestion(String conditionName, int score, String advice) {}
 
+    /**
+     * A follow-up symptom worth asking about. separation is in score points (fractional when
+     * modifiers scale weights); favoredCondition is the top condition that gains most
+     * (null when it only matters for an outsider).
+     */
+    public record QuestionSuggestion(String symptom, double separation, String favoredCondition,
+                                     boolean changesLeader, boolean promotesOutsider) {}
+
     public static class EvaluationResult {
         private final List<ConditionSuggestion> topSuggestions;
         private final boolean urgent;
+        private final String urgentRuleId;
 
         public EvaluationResult(List<ConditionSuggestion> topSuggestions, boolean urgent) {
+            this(topSuggestions, urgent, null);
+        }
+
+        public EvaluationResult(List<ConditionSuggestion> topSuggestions, boolean urgent, String urgentRuleId) {
             this.topSuggestions = topSuggestions;
             this.urgent = urgent;
+            this.urgentRuleId = urgentRuleId;
         }
 
         public List<ConditionSuggestion> getTopSuggestions() {
@@ -262,5 +623,10 @@ public class SymptomEngine {
         public boolean isUrgent() {
             return urgent;
         }
+
+        /** Id of the red-flag rule that set the urgent flag, or null when not urgent. */
+        public String getUrgentRuleId() {
+            return urgentRuleId;
+        }
     }
 }
\ No newline at end of file
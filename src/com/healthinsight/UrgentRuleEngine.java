@@ -0,0 +1,176 @@
+package com.healthinsight;
+
+import java.util.*;
+
+/**
+ * UrgentRuleEngine
+ * - Compiles declarative red-flag rules into bitmasks over symptom ids
+ * - Each rule is indexed under one "discriminating" required symptom (the one shared by
+ *   the fewest rules), so a lookup only visits rules whose rarest symptom was selected
+ * - Rules are prioritised by declaration order; the first matching rule is reported
+ *
+ * Rule format, one per line ('#' starts a comment):
+ *   rule-id | requires: Symptom A, Symptom B | forbids: Symptom C | age: 0-5 | sex: Female
+ * Only "requires" is mandatory. Age bounds are inclusive; "age: 65-" means 65 and over, and
+ * a rule without an age field applies at every age.
+ * Sex may list several values separated by commas: Female, Male or Other (case-insensitive);
+ * any other value is a compile error. Line, age and sex syntax is shared with
+ * DemographicModifiers (see FieldParser).
+ */
+public class UrgentRuleEngine {
+
+    private static final int[] NO_RULES = new int[0];
+
+    private final Map<String, Integer> symptomIds;
+    private final int words;
+    private final List<UrgentRule> rules;
+    private final long[][] requiredMasks;
+    private final long[][] forbiddenMasks;
+    private final int[][] rulesBySymptom;
+
+    private UrgentRuleEngine(Map<String, Integer> symptomIds, List<UrgentRule> rules) {
+        this.symptomIds = symptomIds;
+        this.words = (symptomIds.size() + 63) >>> 6;
+        this.rules = rules;
+        this.requiredMasks = new long[rules.size()][];
+        this.forbiddenMasks = new long[rules.size()][];
+
+        int[] usage = new int[symptomIds.size()];
+        for (int r = 0; r < rules.size(); r++) {
+            UrgentRule rule = rules.get(r);
+            requiredMasks[r] = mask(rule.requires());
+            forbiddenMasks[r] = mask(rule.forbids());
+            for (String s : rule.requires()) usage[symptomIds.get(s)]++;
+        }
+
+        List<List<Integer>> index = new ArrayList<>(symptomIds.size());
+        for (int i = 0; i < symptomIds.size(); i++) index.add(new ArrayList<>());
+        for (int r = 0; r < rules.size(); r++) {
+            int best = -1;
+            for (String s : rules.get(r).requires()) {
+                int id = symptomIds.get(s);
+                if (best < 0 || usage[id] < usage[best]) best = id;
+            }
+            index.get(best).add(r); // ascending r, i.e. priority order
+        }
+        this.rulesBySymptom = new int[symptomIds.size()][];
+        for (int i = 0; i < index.size(); i++) {
+            List<Integer> l = index.get(i);
+            rulesBySymptom[i] = l.isEmpty() ? NO_RULES : l.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Parses and compiles rules against the symptom catalogue.
+     * Throws IllegalArgumentException on syntax errors, unknown symptoms or duplicate ids.
+     */
+    public static UrgentRuleEngine compile(String ruleText, List<String> symptoms) {
+        Map<String, Integer> ids = new HashMap<>();
+        for (String s : symptoms) ids.putIfAbsent(s, ids.size());
+
+        List<UrgentRule> rules = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (FieldParser.Line line : FieldParser.lines(ruleText)) {
+            UrgentRule rule = parse(line, ids);
+            if (!seen.add(rule.id())) throw FieldParser.error(line.number(), "duplicate rule id " + rule.id());
+            rules.add(rule);
+        }
+        return new UrgentRuleEngine(ids, rules);
+    }
+
+    /** Returns the highest-priority matching rule, or null when nothing fires. */
+    public UrgentRule match(Collection<String> selectedSymptoms, int age, int sexBucket) {
+        long[] selected = new long[words];
+        int[] ids = new int[selectedSymptoms.size()];
+        int n = 0;
+        for (String s : selectedSymptoms) {
+            Integer id = symptomIds.get(s);
+            if (id == null) continue;
+            selected[id >>> 6] |= 1L << id;
+            ids[n++] = id;
+        }
+
+        int best = Integer.MAX_VALUE;
+        for (int k = 0; k < n; k++) {
+            for (int r : rulesBySymptom[ids[k]]) {
+                if (r >= best) break; // lists are in priority order
+                if (matches(r, selected, age, sexBucket)) {
+                    best = r;
+                    break;
+                }
+            }
+        }
+        return best == Integer.MAX_VALUE ? null : rules.get(best);
+    }
+
+    public List<UrgentRule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    private boolean matches(int r, long[] selected, int age, int sexBucket) {
+        UrgentRule rule = rules.get(r);
+        if (age < rule.minAge() || age > rule.maxAge()) return false;
+        if ((rule.sexMask() & (1 << sexBucket)) == 0) return false;
+        long[] req = requiredMasks[r];
+        long[] forb = forbiddenMasks[r];
+        for (int w = 0; w < words; w++) {
+            if ((selected[w] & req[w]) != req[w]) return false;
+            if ((selected[w] & forb[w]) != 0) return false;
+        }
+        return true;
+    }
+
+    private long[] mask(Set<String> names) {
+        long[] m = new long[words];
+        for (String s : names) {
+            int id = symptomIds.get(s);
+            m[id >>> 6] |= 1L << id;
+        }
+        return m;
+    }
+
+    private static UrgentRule parse(FieldParser.Line line, Map<String, Integer> ids) {
+        int lineNo = line.number();
+        String id = line.head();
+        if (id.isEmpty()) throw FieldParser.error(lineNo, "missing rule id");
+
+        Set<String> requires = new LinkedHashSet<>();
+        Set<String> forbids = new LinkedHashSet<>();
+        // No age field (or an open bound) means any age, including values evaluate() was never clamped to
+        int minAge = Integer.MIN_VALUE, maxAge = Integer.MAX_VALUE;
+        int sexMask = FieldParser.allSexes();
+
+        for (FieldParser.Field f : line.fields()) {
+            switch (f.key()) {
+                case "requires" -> symptomList(f.value(), lineNo, ids, requires);
+                case "forbids" -> symptomList(f.value(), lineNo, ids, forbids);
+                case "age" -> {
+                    int[] range = FieldParser.ageRange(f.value(), lineNo);
+                    minAge = range[0];
+                    maxAge = range[1];
+                }
+                case "sex" -> sexMask = FieldParser.sexMask(f.value(), lineNo);
+                default -> throw FieldParser.error(lineNo, "unknown field '" + f.key() + "'");
+            }
+        }
+        if (requires.isEmpty()) throw FieldParser.error(lineNo, "rule " + id + " requires no symptoms");
+        for (String s : requires) {
+            if (forbids.contains(s)) throw FieldParser.error(lineNo, "rule " + id + " both requires and forbids " + s);
+        }
+        return new UrgentRule(id, requires, forbids, minAge, maxAge, sexMask);
+    }
+
+    private static void symptomList(String value, int lineNo, Map<String, Integer> ids, Set<String> out) {
+        for (String s : value.split(",")) {
+            String name = s.trim();
+            if (name.isEmpty()) continue;
+            if (!ids.containsKey(name)) throw FieldParser.error(lineNo, "unknown symptom '" + name + "'");
+            out.add(name);
+        }
+    }
+
+    /* ------------ Rule Model ------------- */
+
+    public record UrgentRule(String id, Set<String> requires, Set<String> forbids,
+                             int minAge, int maxAge, int sexMask) {}
+}